@@ -0,0 +1,321 @@
+// This file is licensed under the CC0.
+package vaxrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// drives VAX directly, as it measures the interpreter itself rather than
+// the VAXMachine API
+@SuppressWarnings("auxiliaryclass")
+public class Bench {
+
+    // a fresh VAX; javac cannot suppress the auxiliary-class lint in a
+    // signature, so this one does not name the class
+    interface Workload {
+
+        Object load() throws Exception;
+    }
+
+    static class Program {
+
+        public static final int ENTRY = 0, DATA = 0x8000, FUNC = 0x4000, STR = 0x9000, PACKED = 0xa000;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        public Program bytes(int... bs) {
+            for (int b : bs) {
+                code.write(b);
+            }
+            return this;
+        }
+
+        public Program word(int w) {
+            return bytes(w, w >> 8);
+        }
+
+        public Program longword(int l) {
+            return bytes(l, l >> 8, l >> 16, l >> 24);
+        }
+
+        public int pc() {
+            return ENTRY + code.size();
+        }
+
+        // movl $value, rn
+        public Program movl(int value, int rn) {
+            return bytes(0xd0, 0x8f).longword(value).bytes(0x50 | rn);
+        }
+
+        // entry mask, register setup, count iterations of body, chmk $1
+        public static Program loop(int count, Body body) {
+            Program p = new Program().word(0);
+            p.movl(DATA, 1).movl(1, 2).movl(count, 11);
+            int top = p.pc();
+            do {
+                body.emit(p);
+            } while (p.pc() - top < 64);
+            int disp = top - (p.pc() + 3);
+            if (disp < -128) {
+                throw new IllegalStateException("loop body is too long");
+            }
+            return p.bytes(0xf5, 0x5b, disp).bytes(0xbc, 0x01); // sobgtr r11; chmk $1
+        }
+
+        public Object load() throws Exception {
+            VAX vax = new VAX();
+            byte[] bin = code.toByteArray();
+            for (int i = 0; i < bin.length; ++i) {
+                vax.set(ENTRY + i, 1, bin[i]);
+            }
+            for (int i = 0; i < 64; i += 4) {
+                vax.set(DATA + i, 4, DATA); // pointers for deferred modes
+            }
+            vax.set(FUNC, 2, 0x0ffc); // .word r2-r11
+            vax.set(FUNC + 2, 1, 0x04); // ret
+            for (int i = 0; i < 64; ++i) {
+                vax.set(STR + i, 1, 'x');
+            }
+            int[] packed = {0x12, 0x34, 0x56, 0x78, 0x9c}; // 123456789+
+            for (int i = 0; i < packed.length; ++i) {
+                vax.set(PACKED + i, 1, packed[i]);
+            }
+            vax.set(PACKED + 0x100, 1, 0x99); // eo$move 9
+            vax.set(PACKED + 0x101, 1, 0x00); // eo$end
+            return vax;
+        }
+    }
+
+    interface Body {
+
+        void emit(Program p);
+    }
+
+    static class Result {
+
+        public final String name;
+        public final long insns;
+        public final double[] scores;
+
+        public Result(String name, long insns, double[] scores) {
+            this.name = name;
+            this.insns = insns;
+            this.scores = scores;
+        }
+
+        public double mean() {
+            double sum = 0;
+            for (double s : scores) {
+                sum += s;
+            }
+            return sum / scores.length;
+        }
+
+        public double stdev() {
+            if (scores.length < 2) {
+                return 0;
+            }
+            double m = mean(), sum = 0;
+            for (double s : scores) {
+                sum += (s - m) * (s - m);
+            }
+            return Math.sqrt(sum / (scores.length - 1));
+        }
+
+        public void json(StringBuilder sb) {
+            sb.append("    {\n");
+            sb.append("        \"benchmark\" : \"").append(name).append("\",\n");
+            sb.append("        \"mode\" : \"thrpt\",\n");
+            sb.append("        \"instructions\" : ").append(insns).append(",\n");
+            sb.append("        \"primaryMetric\" : {\n");
+            sb.append(String.format(Locale.ROOT, "            \"score\" : %.3f,\n", mean()));
+            sb.append(String.format(Locale.ROOT, "            \"scoreError\" : %.3f,\n", stdev()));
+            sb.append("            \"scoreUnit\" : \"insns/s\",\n");
+            sb.append("            \"rawData\" : [\n                [");
+            for (int i = 0; i < scores.length; ++i) {
+                sb.append(i > 0 ? ", " : "");
+                sb.append(String.format(Locale.ROOT, "%.3f", scores[i]));
+            }
+            sb.append("]\n            ]\n");
+            sb.append("        }\n");
+            sb.append("    }");
+        }
+    }
+
+    static int warmups = 3, iterations = 5, millis = 500;
+    static boolean direct;
+    static final ArrayList<String> names = new ArrayList<>();
+    static final ArrayList<Workload> workloads = new ArrayList<>();
+
+    static void add(String name, Workload w) {
+        names.add(name);
+        workloads.add(w);
+    }
+
+    static void add(String name, Body body) {
+        Program p = Program.loop(1000, body);
+        add(name, p::load);
+    }
+
+    static void samples(File dir) {
+        String[][] samples = {
+            {"1"}, {"2"}, {"3"}, {"4"}, {"5"}, {"6"}, {"hello"},
+            {"write"}, {"write-1"}, {"write-2"}, {"write-3"}, {"write-4"},
+            {"write-5"}, {"write-6"}, {"write-7"}, {"bin/echo", "a", "b"}
+        };
+        for (String[] args : samples) {
+            File f = new File(dir, args[0]);
+            if (f.exists()) {
+                String[] args2 = args.clone();
+                args2[0] = f.getPath();
+                add("step.sample." + args[0],
+                        () -> new VAX(AOut.load(args2[0]), args2, VAX.MEMORY, direct));
+            }
+        }
+    }
+
+    static void synthetic() {
+        // getOperand: movl <mode>, r0
+        add("operand.literal", p -> p.bytes(0xd0, 0x05, 0x50));
+        add("operand.register", p -> p.bytes(0xd0, 0x51, 0x50));
+        add("operand.deferred", p -> p.bytes(0xd0, 0x61, 0x50));
+        add("operand.autoinc", p -> p.bytes(0xd0, 0x81, 0x50, 0xd0, 0x71, 0x50));
+        add("operand.autoincdef", p -> p.bytes(0xd0, 0x91, 0x50, 0xd0, 0x71, 0x50));
+        add("operand.immediate", p -> p.bytes(0xd0, 0x8f).longword(0x12345678).bytes(0x50));
+        add("operand.absolute", p -> p.bytes(0xd0, 0x9f).longword(Program.DATA).bytes(0x50));
+        add("operand.bytedisp", p -> p.bytes(0xd0, 0xa1, 0x04, 0x50));
+        add("operand.worddisp", p -> p.bytes(0xd0, 0xc1).word(4).bytes(0x50));
+        add("operand.longdisp", p -> p.bytes(0xd0, 0xe1).longword(4).bytes(0x50));
+        add("operand.bytedispdef", p -> p.bytes(0xd0, 0xb1, 0x04, 0x50));
+        add("operand.indexed", p -> p.bytes(0xd0, 0x41, 0xa1, 0x04, 0x50));
+        add("operand.pcrel", p -> p.bytes(0xd0, 0xef).longword(Program.DATA - (p.pc() + 4)).bytes(0x50));
+        // setOperand: movl r0, <mode>
+        add("operand.store.bytedisp", p -> p.bytes(0xd0, 0x50, 0xa1, 0x04));
+        // getAddress: moval <mode>, r0 / pushal <mode>
+        add("address.bytedisp", p -> p.bytes(0xde, 0xa1, 0x04, 0x50));
+        add("address.indexed", p -> p.bytes(0xde, 0x41, 0xa1, 0x04, 0x50));
+        add("address.pushal", p -> p.bytes(0xdf, 0x61, 0xd0, 0x8e, 0x50));
+        // calls/ret frame building
+        add("frame.calls0", p -> p.bytes(0xfb, 0x00, 0x9f).longword(Program.FUNC));
+        add("frame.calls2", p -> p.bytes(0xdd, 0x52, 0xdd, 0x52, 0xfb, 0x02, 0x9f).longword(Program.FUNC));
+        // string and decimal instructions
+        add("string.locc", p -> p.bytes(0x3a, 0x20, 0x8f).word(64).bytes(0x9f).longword(Program.STR));
+        add("string.skpc", p -> p.bytes(0x3b, 0x8f, 0x78, 0x8f).word(64).bytes(0x9f).longword(Program.STR));
+        add("decimal.cvtlp", p -> p.bytes(0xf9, 0x8f).longword(123456789).bytes(0x09, 0x9f).longword(Program.PACKED + 0x200));
+        add("decimal.editpc", p -> p.bytes(0x38, 0x09, 0x9f).longword(Program.PACKED)
+                .bytes(0x9f).longword(Program.PACKED + 0x100)
+                .bytes(0x9f).longword(Program.PACKED + 0x300));
+    }
+
+    // runs until the exit syscall and returns the number of steps
+    static long calibrate(Workload w) throws Exception {
+        VAX vax = (VAX) w.load();
+        vax.pushCallStack(false);
+        long steps = 0;
+        while (vax.get(vax.getRegister(VAX.PC), 2) != 0x01bc) { // chmk $1
+            vax.step();
+            ++steps;
+        }
+        return steps;
+    }
+
+    static double iteration(Workload w, long steps) throws Exception {
+        long insns = 0, time = 0;
+        while (time < millis * 1000000L) {
+            VAX vax = (VAX) w.load();
+            vax.pushCallStack(false);
+            long t = System.nanoTime();
+            for (long i = 0; i < steps; ++i) {
+                vax.step();
+            }
+            time += System.nanoTime() - t;
+            insns += steps;
+        }
+        return insns * 1e9 / time;
+    }
+
+    static Result measure(String name, Workload w) throws Exception {
+        long steps = calibrate(w);
+        for (int i = 0; i < warmups; ++i) {
+            iteration(w, steps);
+        }
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; ++i) {
+            scores[i] = iteration(w, steps);
+        }
+        return new Result(name, steps, scores);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String output = "bench.json";
+        File dir = new File("samples");
+        ArrayList<Pattern> filters = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "-o":
+                    output = args[++i];
+                    break;
+                case "-d":
+                    dir = new File(args[++i]);
+                    break;
+                case "-wi":
+                    warmups = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    millis = Integer.parseInt(args[++i]);
+                    break;
+                case "-O":
+                    direct = true;
+                    break;
+                default:
+                    filters.add(Pattern.compile(args[i]));
+                    break;
+            }
+        }
+        samples(dir);
+        synthetic();
+        PrintStream out = System.out;
+        ArrayList<Result> results = new ArrayList<>();
+        for (int i = 0; i < names.size(); ++i) {
+            String name = names.get(i);
+            boolean match = filters.isEmpty();
+            for (Pattern f : filters) {
+                match |= f.matcher(name).find();
+            }
+            if (!match) {
+                continue;
+            }
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            Result r;
+            try {
+                r = measure(name, workloads.get(i));
+            } finally {
+                System.setOut(out);
+            }
+            out.printf(Locale.ROOT, "%-32s %14.0f +- %12.0f insns/s%n", name, r.mean(), r.stdev());
+            results.add(r);
+        }
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); ++i) {
+            results.get(i).json(sb);
+            sb.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        sb.append("]\n");
+        File f = new File(output);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            fos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        out.println("results: " + f.getPath());
+    }
+}
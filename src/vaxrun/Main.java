@@ -2,19 +2,49 @@
 package vaxrun;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
-import java.util.Stack;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 enum VAXType {
 
@@ -108,7 +138,7 @@ enum VAXOp {
     SOBGEQ(0xf4, "l1"), SOBGTR(0xf5, "l1"), CVTLB(0xf6, "lb"), CVTLW(0xf7, "lw"),
     ASHP(0xf8, "bwbbwb"), CVTLP(0xf9, "lwb"), CALLG(0xfa, "bb"), CALLS(0xfb, "lb"),
     XFC(0xfc, ""),
-    CVTDH(0xfd32, "dh"), CVTGF(0xfd33, "gh"),
+    CVTDH(0xfd32, "dh"), CVTGF(0xfd33, "gf"),
     ADDG2(0xfd40, "gg"), ADDG3(0xfd41, "ggg"), SUBG2(0xfd42, "gg"), SUBG3(0xfd43, "ggg"),
     MULG2(0xfd44, "gg"), MULG3(0xfd45, "ggg"), DIVG2(0xfd46, "gg"), DIVG3(0xfd47, "ggg"),
     CVTGB(0xfd48, "gb"), CVTGW(0xfd49, "gw"), CVTGL(0xfd4a, "gl"), CVTRGL(0xfd4b, "gl"),
@@ -653,11 +683,12 @@ class VAXAsm {
     public static final void test(boolean opr) {
 
         byte[] mem = new byte[65536];
-        ByteBuffer buf = ByteBuffer.wrap(mem).order(ByteOrder.LITTLE_ENDIAN);
+        VAXMemory vmem = new VAXHeapMemory(mem.length, null);
         VAXAsm asm = new VAXAsm();
-        VAXDisasm dis = new VAXDisasm(buf, null, null);
+        VAXDisasm dis = new VAXDisasm(vmem, null, null);
         Random r = new Random(0);
         r.nextBytes(mem);
+        vmem.write(0, mem, 0, mem.length);
         int ok = 0, ng = 0;
         for (int pc = 0; pc < mem.length - 32;) {
             String s = "?";
@@ -702,15 +733,15 @@ class VAXDisasm {
     };
     private final static int PC = 15;
 
-    private final ByteBuffer buf;
+    private final VAXMemory mem;
     private final AOut aout;
     private int offset, casead, casec, mode;
     private LinkedList<Symbol> addrs;
     private final int[] r = new int[16];
     private final int[] vmr;
 
-    public VAXDisasm(ByteBuffer buf, AOut aout, int[] r) {
-        this.buf = buf;
+    public VAXDisasm(VAXMemory mem, AOut aout, int[] r) {
+        this.mem = mem;
         this.aout = aout;
         if (aout != null && aout.a_entry < 0) {
             offset = 0x80000000;
@@ -727,7 +758,7 @@ class VAXDisasm {
     }
 
     public int fetch() {
-        return Byte.toUnsignedInt(buf.get(r[PC]++));
+        return mem.read(r[PC]++, 1) & 0xff;
     }
 
     public int fetch(int size) {
@@ -739,11 +770,9 @@ class VAXDisasm {
     public int get(int addr, int size) {
         switch (size) {
             case 1:
-                return buf.get(addr);
             case 2:
-                return buf.getShort(addr);
             case 4:
-                return buf.getInt(addr);
+                return mem.read(addr, size);
         }
         return 0;
     }
@@ -778,7 +807,7 @@ class VAXDisasm {
                 }
                 out.printf("%08x:", offset + pc + i);
             }
-            out.printf(" %02x", buf.get(pc + i));
+            out.printf(" %02x", mem.read(pc + i, 1) & 0xff);
         }
         if (len <= 8) {
             for (int i = len; i < 8; ++i) {
@@ -879,7 +908,7 @@ class VAXDisasm {
         if (mode <= 2) {
             return 0;
         }
-        int b = Byte.toUnsignedInt(buf.get(r[PC]));
+        int b = mem.read(r[PC], 1) & 0xff;
         int adm = b >> 4, rn = b & 15;
         switch (adm) {
             case 6: // (r)
@@ -1063,80 +1092,130 @@ class AOut {
 
     public final ByteBuffer header;
     public final int a_magic, a_text, a_data, a_bss, a_syms, a_entry, a_trsize, a_drsize;
-    public final byte[] text, data;
+    public static final int MAP_THRESHOLD = 0x10000, CACHE = 64;
+    // zero-copy views of the (memory-mapped) image
+    public final ByteBuffer text, data;
+    public final VAXSegment textSeg, dataSeg;
+    public final long mtime, length;
     public final Symbol[] syms;
     public final HashMap<Integer, String> symO = new HashMap<>();
     public final HashMap<Integer, String> symT = new HashMap<>();
     private final Symbol[] addrs;
 
     public AOut(String path) throws IOException {
-        try (FileInputStream fis = new FileInputStream(path)) {
-            byte[] h = new byte[0x20];
-            fis.read(h);
-            ByteBuffer hdr = ByteBuffer.wrap(h).order(ByteOrder.LITTLE_ENDIAN);
-            a_magic = hdr.getInt();
-            if (a_magic == 0x108) {
-                header = hdr;
-                a_text = hdr.getInt(4);
-                a_data = hdr.getInt(8);
-                a_bss = hdr.getInt(12);
-                a_syms = hdr.getInt(16);
-                a_entry = hdr.getInt(20);
-                a_trsize = hdr.getInt(24);
-                a_drsize = hdr.getInt(28);
-                text = new byte[a_text];
-                data = new byte[a_data];
-                fis.read(text);
-                fis.read(data);
-                if (a_syms > 0) {
-                    fis.skip(a_trsize + a_drsize);
-                    byte[] sym = new byte[a_syms];
-                    fis.read(sym);
-                    ByteBuffer sbuf = ByteBuffer.wrap(sym).order(ByteOrder.LITTLE_ENDIAN);
-                    ArrayList<Symbol> list = new ArrayList<>();
-                    ArrayList<Symbol> ads = new ArrayList<>();
-                    for (int p = 0; p <= a_syms - 16; p += 16) {
-                        Symbol s = new Symbol(sbuf, p);
-                        list.add(s);
-                        if (4 <= s.type && s.type <= 9) {
-                            if (s.isObject()) {
-                                symO.put(s.value, s.name);
-                            } else {
-                                symT.put(s.value, s.name);
-                            }
-                            ads.add(s);
-                        }
+        ByteBuffer image;
+        File file = new File(path);
+        mtime = file.lastModified();
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel fc = fis.getChannel();
+            if (fc.size() < MAP_THRESHOLD) {
+                // setting up a mapping costs more than reading a small file
+                image = ByteBuffer.wrap(fis.readAllBytes());
+            } else {
+                // the mapping stays live: guests started from it see a rewrite
+                // in place, and a truncation faults them, so replace the file
+                // (write elsewhere and rename) rather than overwrite it
+                image = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            }
+            image.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int size = image.capacity();
+        length = size;
+        a_magic = size >= 0x20 ? image.getInt(0) : 0;
+        if (a_magic != 0x108) {
+            text = image;
+            data = null;
+            textSeg = new VAXSegment(text);
+            dataSeg = null;
+            syms = null;
+            header = null;
+            a_text = size;
+            a_data = a_bss = a_syms = a_entry = a_trsize = a_drsize = 0;
+            addrs = new Symbol[0];
+            return;
+        }
+        header = slice(image, 0, 0x20);
+        a_text = image.getInt(4);
+        a_data = image.getInt(8);
+        a_bss = image.getInt(12);
+        a_syms = image.getInt(16);
+        a_entry = image.getInt(20);
+        a_trsize = image.getInt(24);
+        a_drsize = image.getInt(28);
+        text = slice(image, 0x20, a_text);
+        data = slice(image, 0x20 + a_text, a_data);
+        textSeg = new VAXSegment(text);
+        dataSeg = new VAXSegment(data);
+        if (a_syms > 0) {
+            ByteBuffer sbuf = slice(image, 0x20 + a_text + a_data + a_trsize + a_drsize, a_syms);
+            ArrayList<Symbol> list = new ArrayList<>();
+            ArrayList<Symbol> ads = new ArrayList<>();
+            for (int p = 0; p <= sbuf.capacity() - 16; p += 16) {
+                Symbol s = new Symbol(sbuf, p);
+                list.add(s);
+                if (4 <= s.type && s.type <= 9) {
+                    if (s.isObject()) {
+                        symO.put(s.value, s.name);
+                    } else {
+                        symT.put(s.value, s.name);
                     }
-                    syms = list.toArray(new Symbol[list.size()]);
-                    ads.sort((a, b) -> {
-                        int ret = a.value - b.value;
-                        if (ret == 0) {
-                            int ao = a.isObject() ? 0 : 1;
-                            int bo = b.isObject() ? 0 : 1;
-                            return ao - bo;
-                        }
-                        return ret;
-                    });
-                    addrs = ads.toArray(new Symbol[ads.size()]);
-                } else {
-                    syms = null;
-                    addrs = new Symbol[0];
+                    ads.add(s);
                 }
-                return;
             }
+            syms = list.toArray(new Symbol[list.size()]);
+            ads.sort((a, b) -> {
+                int ret = a.value - b.value;
+                if (ret == 0) {
+                    int ao = a.isObject() ? 0 : 1;
+                    int bo = b.isObject() ? 0 : 1;
+                    return ao - bo;
+                }
+                return ret;
+            });
+            addrs = ads.toArray(new Symbol[ads.size()]);
+        } else {
+            syms = null;
+            addrs = new Symbol[0];
+        }
+    }
+
+    private static final LinkedHashMap<String, AOut> cache
+            = new LinkedHashMap<String, AOut>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AOut> eldest) {
+            return size() > CACHE;
+        }
+    };
+
+    // a parsed image shared by every guest started from the same,
+    // unchanged file; the least recently used images are dropped
+    public static AOut load(String path) throws IOException {
+        File file = new File(path).getAbsoluteFile();
+        String key = file.getPath();
+        AOut ret;
+        synchronized (cache) {
+            ret = cache.get(key);
         }
-        text = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(path));
-        data = null;
-        syms = null;
-        header = null;
-        a_text = text.length;
-        a_data = a_bss = a_syms = a_entry = a_trsize = a_drsize = 0;
-        addrs = new Symbol[0];
+        if (ret != null && ret.mtime == file.lastModified() && ret.length == file.length()) {
+            return ret;
+        }
+        ret = new AOut(key);
+        synchronized (cache) {
+            cache.put(key, ret);
+        }
+        return ret;
+    }
+
+    // a read-only little-endian view, truncated at the end of the file
+    private static ByteBuffer slice(ByteBuffer image, int off, int len) {
+        off = Math.min(off, image.capacity());
+        len = Math.max(0, Math.min(len, image.capacity() - off));
+        return image.slice(off, len).order(ByteOrder.LITTLE_ENDIAN);
     }
 
-    private void dump(PrintStream out, byte[] m, int start, int ad, int len) {
-        if (ad + len > m.length) {
-            len = m.length - ad;
+    private void dump(PrintStream out, ByteBuffer m, int start, int ad, int len) {
+        if (ad + len > m.capacity()) {
+            len = m.capacity() - ad;
         }
         for (; ad < len; ad += 16) {
             out.printf("%08x ", start + ad);
@@ -1146,7 +1225,7 @@ class AOut {
                     out.print(' ');
                 }
                 if (ad + i < len) {
-                    int b = Byte.toUnsignedInt(m[ad + i]);
+                    int b = Byte.toUnsignedInt(m.get(ad + i));
                     out.printf(" %02x", b);
                     sb.append((char) (b < ' ' || b > 126 ? '.' : b));
                 } else {
@@ -1186,859 +1265,791 @@ class AOut {
     }
 }
 
-class AddrSym {
+class VAXExit extends Exception {
+
+    private static final long serialVersionUID = 1L;
+    public int status;
+
+    public VAXExit() {
+        super(null, null, false, false);
+    }
 
-    public final int addr;
-    public final String sym;
+    public VAXExit set(int status) {
+        this.status = status;
+        return this;
+    }
 
-    public AddrSym(int addr, String sym) {
-        this.addr = addr;
-        this.sym = sym;
+    @Override
+    public String getMessage() {
+        return "exit " + status;
     }
 }
 
-class VAX {
+class VAXTrap extends Exception {
 
-    public static final int AP = 12, FP = 13, SP = 14, PC = 15;
-    private final byte[] mem = new byte[0x40000];
-    private final int[] r = new int[16];
-    private boolean n, z, v, c;
-    private final ByteBuffer buf = ByteBuffer.wrap(mem).order(ByteOrder.LITTLE_ENDIAN);
-    private final AOut aout;
-    private final VAXAsm asm = new VAXAsm();
-    private final VAXDisasm dis;
-    private final Stack<AddrSym> callStack = new Stack<>();
-    private int mode;
+    private static final long serialVersionUID = 1L;
+    public static final int ACCESS = 0, OPCODE = 1, ADDRMODE = 2, SIZE = 3;
+    public static final int RESERVED = 4, ARITH = 5;
+    // arithmetic trap codes as the VAX numbers them
+    public static final int INTDIV = 2, DECDIV = 4, FLTOVF = 8, FLTDIV = 9;
+    // a guest fault aborts the instruction, so one record per VAX is enough
+    public int kind, pc, value;
 
-    public VAX() {
-        aout = null;
-        mode = 1;
-        r[SP] = mem.length - 4;
-        dis = new VAXDisasm(buf, null, r);
-        dis.setMode(4);
+    public VAXTrap() {
+        super(null, null, false, false);
     }
 
-    public VAX(AOut aout, String[] args) {
-        this.aout = aout;
-        System.arraycopy(aout.text, 0, mem, 0, aout.a_text);
-        int dstart = (aout.a_text + 0x1ff) & ~0x1ff;
-        System.arraycopy(aout.data, 0, mem, dstart, aout.a_data);
-        r[PC] = aout.a_entry;
-        dis = new VAXDisasm(buf, aout, r);
-        setArgs(args);
+    public VAXTrap set(int kind, int pc, int value) {
+        this.kind = kind;
+        this.pc = pc;
+        this.value = value;
+        return this;
     }
 
-    private void setArgs(String[] args) {
-        int s = mem.length;
-        byte[][] bargs = new byte[args.length][];
-        for (int i = 0; i < args.length; ++i) {
-            bargs[i] = args[i].getBytes(StandardCharsets.US_ASCII);
-            s -= bargs[i].length + 1;
-        }
-        s &= ~3;
-        buf.putLong(s - 8, 0);
-        int argv = s - (args.length + 2) * 4;
-        r[SP] = argv - 4;
-        buf.putInt(r[SP], args.length); // argc
-        for (byte[] barg : bargs) {
-            buf.putInt(argv, s);
-            argv += 4;
-            System.arraycopy(barg, 0, mem, s, barg.length);
-            s += barg.length + 1;
-            mem[s - 1] = 0;
+    @Override
+    public String getMessage() {
+        // memory faults are raised with pc -1 and filled in by VAX.run
+        String where = pc == -1 ? "" : String.format("%08x: ", pc);
+        switch (kind) {
+            case ACCESS:
+                return where + String.format("access violation %08x", value);
+            case OPCODE:
+                return where + String.format("unknown opcode %02x", value);
+            case ADDRMODE:
+                return where + String.format("not addr %02x", value);
+            case RESERVED:
+                return where + String.format("reserved operand %08x", value);
+            case ARITH:
+                return where + "arithmetic trap " + value;
         }
+        return where + "invalid size " + value;
     }
+}
 
-    public void setNZVC(boolean n, boolean z, boolean v, boolean c) {
-        this.n = n;
-        this.z = z;
-        this.v = v;
-        this.c = c;
-    }
+class VAXOperand {
 
-    public int fetch() {
-        return Byte.toUnsignedInt(mem[r[PC]++]);
-    }
+    // kinds other than the addressing-mode nibbles
+    public static final int LIT = 0, REG = 5, DISP = 0xa, DISPDEF = 0xb;
+    public static final int ABS = 0x10, ABSDEF = 0x11, BRANCH = 0x12;
 
-    public int fetch(int size) throws Exception {
-        int pc = r[PC];
-        r[PC] += size;
-        return get(pc, size);
-    }
+    public final int spec, kind, rn, index, disp;
 
-    public int get(int addr, int size) throws Exception {
-        switch (size) {
-            case 1:
-                return mem[addr];
-            case 2:
-                return buf.getShort(addr);
-            case 4:
-                return buf.getInt(addr);
-        }
-        throw new Exception("invalid size " + size);
+    public VAXOperand(int spec, int kind, int rn, int disp) {
+        this(spec, kind, rn, -1, disp);
     }
 
-    public int set(int addr, int size, int value) throws Exception {
-        switch (size) {
-            case 1:
-                return mem[addr] = (byte) value;
-            case 2:
-                buf.putShort(addr, (short) value);
-                return (short) value;
-            case 4:
-                buf.putInt(addr, value);
-                return value;
-        }
-        throw new Exception("invalid size " + size);
+    private VAXOperand(int spec, int kind, int rn, int index, int disp) {
+        this.spec = spec;
+        this.kind = kind;
+        this.rn = rn;
+        this.index = index;
+        this.disp = disp;
     }
 
-    public String getString(int addr, int length) {
-        byte[] bytes = Arrays.copyOfRange(mem, addr, addr + length);
-        return new String(bytes, StandardCharsets.US_ASCII);
+    public VAXOperand indexed(int spec, int index) {
+        return new VAXOperand(spec, kind, rn, index, disp);
     }
 
-    public Exception error(String format, Object... args) {
-        return new Exception(String.format(format, args));
+    public boolean isAddress() {
+        return kind != LIT && kind != REG && kind != BRANCH;
     }
+}
 
-    public int reg(int n, int offset) {
-        return n == 15 ? r[n] + offset : r[n];
-    }
+class VAXInsn {
 
-    public int peekOperand(int size) throws Exception {
-        int b = Byte.toUnsignedInt(mem[r[PC]]);
-        switch (b >> 4) {
-            case 0:
-            case 1:
-            case 2:
-            case 3:
-                return b;
-            case 5: // r
-                return reg(b & 15, 1);
-        }
-        return get(peekAddress(size, 0), size);
-    }
+    public final int pc, next, op, size;
+    public final VAXOperand[] oprs;
+    public final VAXHandler handler;
 
-    public int getOperand(int size) throws Exception {
-        int b = Byte.toUnsignedInt(mem[r[PC]]);
-        switch (b >> 4) {
-            case 0:
-            case 1:
-            case 2:
-            case 3:
-                ++r[PC];
-                return b;
-            case 5: // r
-                ++r[PC];
-                return r[b & 15];
-        }
-        return get(getAddress(size), size);
+    public VAXInsn(int pc, int next, int op, VAXOperand[] oprs) {
+        this.pc = pc;
+        this.next = next;
+        this.op = op;
+        this.size = 1 << ((op & 0x7f) >> 5);
+        this.oprs = oprs;
+        this.handler = VAX.handlers[op];
     }
+}
 
-    public int setOperand(int size, int value) throws Exception {
-        int b = Byte.toUnsignedInt(mem[r[PC]]);
-        switch (b >> 4) {
-            case 5: // r
-            {
-                ++r[PC];
-                int rn = b & 15;
-                switch (size) {
-                    case 1:
-                        return r[rn] = (byte) value;
-                    case 2:
-                        return r[rn] = (short) value;
-                    case 4:
-                        return r[rn] = value;
-                    case 8:
-                        r[rn + 1] = value < 0 ? -1 : 0;
-                        return r[rn] = value;
+class VAXBlock {
+
+    private static final boolean[] ends = new boolean[0x10000];
+
+    static {
+        for (VAXOp op : VAXOp.values()) {
+            for (char t : op.oprs) {
+                if (t == '1' || t == '2') {
+                    ends[op.op] = true;
                 }
-                break;
             }
         }
-        return set(getAddress(size), size, value);
+        VAXOp[] flow = {
+            VAXOp.HALT, VAXOp.REI, VAXOp.BPT, VAXOp.RET, VAXOp.RSB,
+            VAXOp.LDPCTX, VAXOp.JSB, VAXOp.JMP, VAXOp.CASEB, VAXOp.CASEW,
+            VAXOp.CASEL, VAXOp.CHMK, VAXOp.CHME, VAXOp.CHMS, VAXOp.CHMU,
+            VAXOp.CALLG, VAXOp.CALLS, VAXOp.XFC
+        };
+        for (VAXOp op : flow) {
+            ends[op.op] = true;
+        }
     }
 
-    public int peekAddress(int size, int ofs) throws Exception {
-        int pc = r[PC] + ofs;
-        int b = Byte.toUnsignedInt(mem[pc++]);
-        int rn = b & 15;
-        switch (b >> 4) {
-            case 4: // [r]
-                return peekAddress(size, ofs + 1) + size * reg(rn, ofs + 1);
-            case 6: // (r)
-                return reg(rn, ofs + 1);
-            case 7: // -(r)
-                return reg(rn, ofs + 1) - size;
-            case 8: // (r)+
-                return reg(rn, ofs + 1);
-            case 9: // *(r)+
-                return get(reg(rn, ofs + 1), 4);
-            case 0xa: // b(r)
-                return reg(rn, ofs + 2) + mem[pc];
-            case 0xb: // *b(r)
-                return get(reg(rn, ofs + 2) + mem[pc], 4);
-            case 0xc: // w(r)
-                return reg(rn, ofs + 3) + buf.getShort(pc);
-            case 0xd: // *w(r)
-                return get(reg(rn, ofs + 3) + buf.getShort(pc), 4);
-            case 0xe: // l(r)
-                return reg(rn, ofs + 5) + buf.getInt(pc);
-            case 0xf: // *l(r)
-                return get(reg(rn, ofs + 5) + buf.getInt(pc), 4);
-        }
-        throw error("%08x: unknown operand %02x", r[PC] + ofs, b);
-    }
+    public final int pc, end, gen;
+    public final VAXInsn[] insns;
+    public VAXBlock next, jump;
+    public VAXCode code;
+    public int count;
 
-    public int getAddress(int size) throws Exception {
-        int pc = r[PC];
-        int b = fetch();
-        int rn = b & 15, disp, ret;
-        switch (b >> 4) {
-            case 4: // [r]
-                return getAddress(size) + size * r[rn];
-            case 6: // (r)
-                return r[rn];
-            case 7: // -(r)
-                return r[rn] -= size;
-            case 8: // (r)+
-                ret = r[rn];
-                r[rn] += size;
-                return ret;
-            case 9: // *(r)+
-                ret = get(r[rn], 4);
-                r[rn] += 4;
-                return ret;
-            case 0xa: // b(r)
-                disp = fetch(1);
-                return r[rn] + disp;
-            case 0xb: // *b(r)
-                disp = fetch(1);
-                return get(r[rn] + disp, 4);
-            case 0xc: // w(r)
-                disp = fetch(2);
-                return r[rn] + disp;
-            case 0xd: // *w(r)
-                disp = fetch(2);
-                return get(r[rn] + disp, 4);
-            case 0xe: // l(r)
-                disp = fetch(4);
-                return r[rn] + disp;
-            case 0xf: // *l(r)
-                disp = fetch(4);
-                return get(r[rn] + disp, 4);
-        }
-        throw error("%08x: not addr %02x", pc, b);
+    public VAXBlock(VAXInsn[] insns, int gen) {
+        this.insns = insns;
+        this.gen = gen;
+        pc = insns[0].pc;
+        end = insns[insns.length - 1].next;
     }
 
-    public void debug() {
-        System.err.printf("%08x %08x %08x %08x-%08x %08x %08x %08x-%08x %08x %08x %08x-%08x %08x %08x %c%c%c%c %08x %s",
-                r[0], r[1], r[2], r[3], r[4], r[5], r[6], r[7],
-                r[8], r[9], r[10], r[11], r[12], r[13], r[14],
-                n ? 'N' : '-', z ? 'Z' : '-', v ? 'V' : '-', c ? 'C' : '-',
-                r[15], dis.disasm1(r[PC]));
-        System.err.println();
+    public static boolean isEnd(VAXInsn insn) {
+        return ends[insn.op];
     }
+}
 
-    public void debugRepl(PrintStream out) {
-        out.printf("r0 = %08x  r1 = %08x  r2 = %08x  r3 = %08x", r[0], r[1], r[2], r[3]);
-        out.println();
-        out.printf("r4 = %08x  r5 = %08x  r6 = %08x  r7 = %08x", r[4], r[5], r[6], r[7]);
-        out.println();
-        out.printf("r8 = %08x  r9 = %08x  r10= %08x  r11= %08x", r[8], r[9], r[10], r[11]);
-        out.println();
-        out.printf("ap = %08x  fp = %08x  sp = %08x  pc = %08x %c%c%c%c",
-                r[12], r[13], r[14], r[15],
-                n ? 'N' : '-', z ? 'Z' : '-', v ? 'V' : '-', c ? 'C' : '-');
-        out.println();
+interface VAXHandler {
+
+    void execute(VAX vax) throws Exception;
+}
+
+interface VAXCode {
+
+    void run(VAX vax, int[] r, VAXInsn[] insns) throws Exception;
+}
+
+class VAXJit {
+
+    public static final int THRESHOLD = 1000;
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final String NAME = "vaxrun/VAXJitCode", OWNER = "vaxrun/VAX";
+    private static final String RUN = "(Lvaxrun/VAX;[I[Lvaxrun/VAXInsn;)V";
+
+    // locals of VAXCode.run
+    private static final int VM = 1, REGS = 2, INSNS = 3, R0 = 4;
+    private static final int N = 20, Z = 21, V = 22, C = 23, IPC = 24;
+    private static final int S1 = 25, S2 = 26, D = 27, A = 28, T = 29;
+
+    // JVM opcodes
+    private static final int ILOAD = 0x15, ALOAD = 0x19, ISTORE = 0x36;
+    private static final int IALOAD = 0x2e, AALOAD = 0x32, IASTORE = 0x4f;
+    private static final int POP = 0x57, DUP = 0x59, IADD = 0x60, ISUB = 0x64;
+    private static final int IMUL = 0x68, LMUL = 0x69, INEG = 0x74, ISHR = 0x7a;
+    private static final int IUSHR = 0x7c, IAND = 0x7e, ICONST_1 = 0x04;
+    private static final int IOR = 0x80, IXOR = 0x82, IINC = 0x84, I2L = 0x85;
+    private static final int I2B = 0x91, I2S = 0x93, LCMP = 0x94;
+    private static final int RETURN = 0xb1, ATHROW = 0xbf;
+    private static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private final VAXBlock block;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final HashMap<String, Integer> pmap = new HashMap<>();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final ArrayList<int[]> ranges = new ArrayList<>();
+    private int pcount = 1, used;
+
+    private VAXJit(VAXBlock block) {
+        this.block = block;
     }
 
-    public String getCallStack() {
-        if (callStack.empty()) {
-            return "";
+    public static VAXCode compile(VAXBlock block) throws Exception {
+        VAXJit jit = new VAXJit(block);
+        byte[] bin = jit.generate();
+        if (bin == null) {
+            return null;
         }
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < callStack.size(); ++i) {
-            if (i > 0) {
-                sb.append(" > ");
-            }
-            sb.append(callStack.elementAt(i).sym);
+        try {
+            MethodHandles.Lookup l = lookup.defineHiddenClass(bin, true);
+            return (VAXCode) l.findConstructor(l.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable t) {
+            throw new Exception(String.format("%08x: jit failed", block.pc), t);
         }
-        return sb.toString();
     }
 
-    public void pushCallStack(boolean args) {
-        String sym = aout.symT.getOrDefault(r[PC], "???");
-        callStack.push(new AddrSym(r[PC], sym));
-        if (mode >= 2) {
-            String s = getCallStack();
-            if (args) {
-                s += "(" + getArgs() + ")";
+    // constant pool
+
+    private int constant(String key, int... entry) {
+        Integer ret = pmap.get(key);
+        if (ret == null) {
+            for (int b : entry) {
+                pool.write(b);
             }
-            System.err.printf("%-139s %08x %s", s, r[PC], dis.word(r[PC]));
-            System.err.println();
+            pmap.put(key, ret = pcount++);
         }
-        r[PC] += 2;
+        return ret;
     }
 
-    public String getArgs() {
-        StringBuilder sb = new StringBuilder();
-        int argc = buf.getInt(r[AP]);
-        for (int i = 0; i < argc; ++i) {
-            if (i > 0) {
-                sb.append(", ");
-            }
-            sb.append(String.format("%08x", buf.getInt(r[AP] + 4 + i * 4)));
+    private int utf8(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int[] entry = new int[b.length + 3];
+        entry[0] = 1;
+        entry[1] = b.length >> 8;
+        entry[2] = b.length;
+        for (int i = 0; i < b.length; ++i) {
+            entry[i + 3] = b[i];
         }
-        return sb.toString();
+        return constant("u" + s, entry);
     }
 
-    public void push(int size, int value) throws Exception {
-        set(r[SP] -= size, size, value);
+    private int cls(String name) {
+        int n = utf8(name);
+        return constant("c" + name, 7, n >> 8, n);
     }
 
-    public int pop(int size) throws Exception {
-        int ret = get(r[SP], size);
-        r[SP] += size;
-        return ret;
+    private int method(String owner, String name, String desc) {
+        int c = cls(owner), n = utf8(name), t = utf8(desc);
+        int nt = constant("n" + name + desc, 12, n >> 8, n, t >> 8, t);
+        return constant("m" + owner + "." + name + desc, 10, c >> 8, c, nt >> 8, nt);
     }
 
-    public void disasm(PrintStream out) {
-        dis.disasm(out, 0, aout.a_text);
+    private int integer(int v) {
+        return constant("i" + v, 3, v >> 24, v >> 16, v >> 8, v);
     }
 
-    public void interpret(PrintStream out, String src) {
-        byte[] bin;
-        try {
-            bin = asm.asm(r[PC], src);
-        } catch (Exception ex) {
-            out.println(ex.getMessage());
-            return;
-        }
-        System.arraycopy(bin, 0, mem, r[PC], bin.length);
-        out.printf("%08x  ", r[PC]);
-        out.println(VAXAsm.binhex(bin) + "  " + dis.disasm1(r[PC]));
-        try {
-            step();
-        } catch (Exception ex) {
-            out.println(ex.getMessage());
+    // code emitter
+
+    private void op(int... bs) {
+        for (int b : bs) {
+            code.write(b);
         }
     }
 
-    public void run(int mode) throws Exception {
-        dis.setMode(this.mode = mode);
-        if (mode >= 2) {
-            System.err.print("   r0       r1       r2       r3   -");
-            System.err.print("   r4       r5       r6       r7   -");
-            System.err.print("   r8       r9       r10      r11  -");
-            System.err.println(" r12(ap)  r13(fp)  r14(sp) flag  r15(pc) disasm");
-        }
-        pushCallStack(false);
-        int pc = r[PC];
-        try {
-            for (;;) {
-                pc = r[PC];
-                step();
-            }
-        } catch (Exception e) {
-            if (!callStack.empty()) {
-                for (int i = 0; i < callStack.size(); ++i) {
-                    if (i > 0) {
-                        System.err.print(" > ");
-                    }
-                    AddrSym asym = callStack.elementAt(i);
-                    System.err.printf("%08x(%s)", asym.addr, asym.sym);
-                }
-                System.err.println();
-            }
-            dis.disasm(System.err, pc, pc + 1);
-            throw e;
+    private void iconst(int v) {
+        if (-1 <= v && v <= 5) {
+            op(0x03 + v);
+        } else if (v == (byte) v) {
+            op(0x10, v);
+        } else if (v == (short) v) {
+            op(0x11, v >> 8, v);
+        } else {
+            int i = integer(v);
+            op(0x13, i >> 8, i);
         }
     }
 
-    public void cvtlp(int src, int dstlen, int dstaddr) {
-        int len = (dstlen >> 1) + 1;
-        int d = dstaddr + len - 1;
-        Arrays.fill(mem, dstaddr, d, (byte) 0);
-        mem[d] = (byte) (src < 0 ? 13 : 12);
-        int tmp = Math.abs(src);
-        for (int i = 0; i < dstlen && tmp > 0; ++i) {
-            byte b = (byte) (Integer.remainderUnsigned(tmp, 10));
-            if ((i & 1) == 0) {
-                mem[d] |= b << 4;
-            } else {
-                mem[--d] = b;
-            }
-            tmp = Integer.divideUnsigned(tmp, 10);
-        }
-        r[0] = r[1] = r[2] = 0;
-        r[3] = d;
-        setNZVC(src < 0, src == 0, tmp > 0, false);
-        if (mode >= 2) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < len; ++i) {
-                sb.append(String.format(" %02x", Byte.toUnsignedInt(mem[dstaddr + i])));
-            }
-            System.err.printf("[cvtlp %d:%08x]%s", src, dstaddr, sb.toString());
-            System.err.println();
-        }
+    private void invoke(int opc, String owner, String name, String desc) {
+        int m = method(owner, name, desc);
+        op(opc, m >> 8, m);
     }
 
-    private void editpcDebug(String cmd) {
-        if (mode < 2) {
-            return;
-        }
-        System.err.printf("[editpc] r0=%08x r1=%08x r2=%08x r4=%08x r5=%08x %c%c%c%c r3=%08x %s",
-                r[0], r[1], r[2], r[4], r[5],
-                n ? 'N' : '-', z ? 'Z' : '-', v ? 'V' : '-', c ? 'C' : '-',
-                r[3], cmd);
-        System.err.println();
+    private void get() {
+        invoke(INVOKEVIRTUAL, OWNER, "get", "(II)I");
     }
 
-    private int editpcRead() throws Exception {
-        if (r[0] == 0) {
-            throw error("editpc: source is too short");
-        }
-        if (r[0] < 0) {
-            r[0] += 0x10000;
-            return 0;
-        }
-        if (((r[0]--) & 1) == 1) {
-            return (mem[r[1]] >> 4) & 0xf;
-        }
-        return mem[r[1]++] & 0xf;
+    private void set() {
+        invoke(INVOKEVIRTUAL, OWNER, "set", "(III)I");
     }
 
-    public void editpc(int srclen, int srcaddr, int pattern, int dstaddr) throws Exception {
-        int s = mem[srcaddr + (srclen >> 1)] & 0xf;
-        setNZVC(s == 0xb || s == 0xd, true, false, false);
-        r[0] = srclen;
-        r[1] = srcaddr;
-        r[2] = (n ? '-' : ' ') << 8 | ' ';
-        r[3] = pattern;
-        r[4] = 0;
-        r[5] = dstaddr;
-        OUTER:
-        for (;; r[3]++) {
-            int b = Byte.toUnsignedInt(mem[r[3]]);
-            switch (b) {
-                case 0:
-                    editpcDebug("eo$end");
-                    break OUTER;
-                case 1:
-                    editpcDebug("eo$end_float");
-                    if (!c) {
-                        c = true;
-                        r[4] = r[1];
-                        mem[r[5]++] = (byte) ((r[2] >> 8) & 0xff);
-                    }
-                    continue;
-            }
-            int rep = b & 15;
-            switch (b >> 4) {
-                case 0x9:
-                    editpcDebug("eo$move " + rep);
-                    for (int i = 0; i < rep; ++i) {
-                        int oldr1 = r[1], num = editpcRead();
-                        if (num != 0 && !c) {
-                            z = false;
-                            c = true;
-                            r[4] = oldr1;
-                        }
-                        mem[r[5]++] = (byte) (c ? '0' + num : r[2] & 0xff);
-                    }
-                    break;
-                case 0xa:
-                    editpcDebug("eo$float " + rep);
-                    for (int i = 0; i < rep; ++i) {
-                        int oldr1 = r[1], num = editpcRead();
-                        if (num != 0 && !c) {
-                            z = false;
-                            c = true;
-                            r[4] = oldr1;
-                            mem[r[5]++] = (byte) ((r[2] >> 8) & 0xff);
-                        }
-                        mem[r[5]++] = (byte) (c ? '0' + num : r[2] & 0xff);
-                    }
-                    break;
-                default:
-                    throw error("editpc: unknown operator %02x", b);
-            }
+    // code generation
+
+    private static boolean simple(VAXOperand o) {
+        return (o.kind != 7 || o.rn != VAX.PC) && o.index != VAX.PC;
+    }
+
+    private static boolean writable(VAXOperand o) {
+        return o.kind != VAXOperand.LIT && o.kind != VAXOperand.BRANCH;
+    }
+
+    private static int dest(int op) {
+        switch (op) {
+            case 0x96: // incb
+            case 0xb6: // incw
+            case 0xd6: // incl
+            case 0x97: // decb
+            case 0xb7: // decw
+            case 0xd7: // decl
+            case 0x94: // clrb
+            case 0xb4: // clrw
+            case 0xd4: // clrl
+            case 0xf4: // sobgeq
+            case 0xf5: // sobgtr
+                return 0;
+            case 0x90: // movb
+            case 0xb0: // movw
+            case 0xd0: // movl
+            case 0x80: // addb2
+            case 0xa0: // addw2
+            case 0xc0: // addl2
+            case 0x82: // subb2
+            case 0xa2: // subw2
+            case 0xc2: // subl2
+            case 0x88: // bisb2
+            case 0xa8: // bisw2
+            case 0xc8: // bisl2
+            case 0x8a: // bicb2
+            case 0xaa: // bicw2
+            case 0xca: // bicl2
+            case 0x8c: // xorb2
+            case 0xac: // xorw2
+            case 0xcc: // xorl2
+            case 0x84: // mulb2
+            case 0xa4: // mulw2
+            case 0xc4: // mull2
+            case 0x8e: // mnegb
+            case 0xae: // mnegw
+            case 0xce: // mnegl
+            case 0x92: // mcomb
+            case 0xb2: // mcomw
+            case 0xd2: // mcoml
+            case 0x9a: // movzbl
+            case 0x9b: // movzbw
+            case 0x3c: // movzwl
+            case 0x99: // cvtbw
+            case 0x98: // cvtbl
+            case 0x33: // cvtwb
+            case 0x32: // cvtwl
+            case 0xf6: // cvtlb
+            case 0xf7: // cvtlw
+            case 0x9e: // movab
+            case 0x3e: // movaw
+            case 0xde: // moval
+                return 1;
+            case 0x81: // addb3
+            case 0xa1: // addw3
+            case 0xc1: // addl3
+            case 0x83: // subb3
+            case 0xa3: // subw3
+            case 0xc3: // subl3
+            case 0x89: // bisb3
+            case 0xa9: // bisw3
+            case 0xc9: // bisl3
+            case 0x8b: // bicb3
+            case 0xab: // bicw3
+            case 0xcb: // bicl3
+            case 0x8d: // xorb3
+            case 0xad: // xorw3
+            case 0xcd: // xorl3
+            case 0x85: // mulb3
+            case 0xa5: // mulw3
+            case 0xc5: // mull3
+                return 2;
+            case 0x91: // cmpb
+            case 0xb1: // cmpw
+            case 0xd1: // cmpl
+            case 0x95: // tstb
+            case 0xb5: // tstw
+            case 0xd5: // tstl
+            case 0x93: // bitb
+            case 0xb3: // bitw
+            case 0xd3: // bitl
+            case 0x9f: // pushab
+            case 0x3f: // pushaw
+            case 0xdf: // pushal
+            case 0xdd: // pushl
+            case 0x11: // brb
+            case 0x31: // brw
+            case 0x12: // bneq
+            case 0x13: // beql
+            case 0x14: // bgtr
+            case 0x15: // bleq
+            case 0x18: // bgeq
+            case 0x19: // blss
+            case 0x1a: // bgtru
+            case 0x1b: // blequ
+            case 0x1c: // bvc
+            case 0x1d: // bvs
+            case 0x1e: // bgequ
+            case 0x1f: // blssu
+                return -1;
         }
-        if (z) {
-            n = false;
+        return -2;
+    }
+
+    private static boolean supported(VAXInsn insn) {
+        int d = dest(insn.op);
+        if (d == -2 || (d >= 0 && !writable(insn.oprs[d]))) {
+            return false;
+        } else if (pushes(insn.op) && insn.op != 0xdd && !insn.oprs[0].isAddress()) {
+            return false; // pusha with a non-address operand
         }
-        v = r[0] != 0;
-        r[0] = srclen;
-        r[1] = r[4];
-        r[2] = 0;
-        r[4] = 0;
-        if (mode >= 2) {
-            String dststr = getString(dstaddr, r[5] - dstaddr);
-            System.err.printf("[editpc:%08x] \"%s\"", dstaddr, dststr);
-            System.err.println();
+        switch (insn.op) {
+            case 0x9e: // movab
+            case 0x3e: // movaw
+            case 0xde: // moval
+                if (!insn.oprs[0].isAddress()) {
+                    return false;
+                }
+        }
+        for (VAXOperand o : insn.oprs) {
+            if (!simple(o)) {
+                return false;
+            }
         }
+        return true;
     }
 
-    public void step() throws Exception {
-        if (mode >= 2) {
-            debug();
+    private static boolean pushes(int op) {
+        return op == 0x9f || op == 0x3f || op == 0xdf || op == 0xdd;
+    }
+
+    private void use(VAXOperand o) {
+        switch (o.kind) {
+            case VAXOperand.LIT:
+            case VAXOperand.ABS:
+            case VAXOperand.ABSDEF:
+            case VAXOperand.BRANCH:
+                break;
+            default:
+                used |= 1 << o.rn;
         }
-        int op = fetch();
-        int size = 1 << ((op & 0x7f) >> 5);
-        int s1, s2, s3, d, tmp;
-        switch (op) {
-            case 1: // nop
+        if (o.index >= 0) {
+            used |= 1 << o.index;
+        }
+    }
+
+    private void address(VAXOperand o, int size) {
+        int rn = R0 + o.rn;
+        switch (o.kind) {
+            case VAXOperand.ABS:
+                iconst(o.disp);
                 break;
-            case 0xbc: // chmk
-                syscall();
+            case VAXOperand.ABSDEF:
+                op(ALOAD, VM);
+                iconst(o.disp);
+                iconst(4);
+                get();
                 break;
-            case 0xfb: // calls
-                s1 = Byte.toUnsignedInt(mem[r[PC]++]);
-                s2 = getAddress(4);
-                d = get(s2, 2); // entry mask
-                push(4, s1);
-                tmp = r[SP];
-                r[SP] &= ~3;
-                if ((d & 0xfff) != 0) {
-                    for (int i = 11, bit = 0x800; i >= 0; --i, bit >>= 1) {
-                        if ((d & bit) != 0) {
-                            push(4, r[i]);
-                        }
-                    }
-                }
-                push(4, r[PC]);
-                push(4, r[FP]);
-                push(4, r[AP]);
-                push(4, ((tmp & 3) << 30)
-                        | 0x2000
-                        | ((d & 0xfff) << 16)
-                        | (n ? 8 : 0)
-                        | (z ? 4 : 0)
-                        | (v ? 2 : 0)
-                        | (c ? 1 : 0));
-                push(4, 0); // handler
-                r[AP] = tmp;
-                r[FP] = r[SP];
-                r[PC] = s2;
-                n = z = v = c = false;
-                pushCallStack(true);
+            case 6: // (r)
+                op(ILOAD, rn);
                 break;
-            case 0x04: // ret
-                r[SP] = r[FP] + 4;
-                tmp = pop(4);
-                n = (tmp & 8) != 0;
-                z = (tmp & 4) != 0;
-                v = (tmp & 2) != 0;
-                c = (tmp & 1) != 0;
-                r[AP] = pop(4);
-                r[FP] = pop(4);
-                r[PC] = pop(4);
-                if ((tmp & 0xfff0000) != 0) {
-                    for (int i = 0, bit = 0x10000; i <= 11; ++i, bit <<= 1) {
-                        if ((tmp & bit) != 0) {
-                            r[i] = pop(4);
-                        }
-                    }
-                }
-                r[SP] += (tmp >> 30) & 3;
-                if ((tmp & 0x2000) != 0) { // calls
-                    s1 = pop(4); // argc
-                    r[SP] += s1 * 4;
-                }
-                callStack.pop();
-                if (mode >= 2) {
-                    System.err.println(getCallStack());
-                }
+            case 7: // -(r)
+                op(ILOAD, rn);
+                iconst(size);
+                op(ISUB, DUP, ISTORE, rn);
                 break;
-            case 0x11: // brb
-            case 0x31: // brw
-                s1 = fetch(size);
-                r[PC] += s1;
+            case 8: // (r)+
+                op(ILOAD, rn, IINC, rn, size);
                 break;
-            case 0x17: // jmp
-                r[PC] = getOperand(4);
+            case 9: // *(r)+
+                op(ALOAD, VM, ILOAD, rn);
+                iconst(4);
+                get();
+                op(IINC, rn, 4);
                 break;
-            case 0x12: // bneq / bnequ
-            case 0x13: // beql / beqlu
-                s1 = fetch(1);
-                if (z == ((op & 1) != 0)) {
-                    r[PC] += s1;
-                }
+            case VAXOperand.DISP:
+                op(ILOAD, rn);
+                iconst(o.disp);
+                op(IADD);
+                break;
+            case VAXOperand.DISPDEF:
+                op(ALOAD, VM, ILOAD, rn);
+                iconst(o.disp);
+                op(IADD);
+                iconst(4);
+                get();
+                break;
+        }
+        if (o.index >= 0) {
+            op(ILOAD, R0 + o.index);
+            iconst(size);
+            op(IMUL, IADD);
+        }
+    }
+
+    private void load(VAXOperand o, int size, int dst) {
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                iconst(o.disp);
+                break;
+            case VAXOperand.REG:
+                op(ILOAD, R0 + o.rn);
+                break;
+            default:
+                op(ALOAD, VM);
+                address(o, size);
+                iconst(size);
+                get();
+        }
+        op(ISTORE, dst);
+    }
+
+    // read a modify operand, keeping its address in A
+    private void modify(VAXOperand o, int size, int dst) {
+        if (o.kind == VAXOperand.REG) {
+            op(ILOAD, R0 + o.rn);
+        } else {
+            address(o, size);
+            op(ISTORE, A, ALOAD, VM, ILOAD, A);
+            iconst(size);
+            get();
+        }
+        op(ISTORE, dst);
+    }
+
+    // write D to a destination and leave the sized value in D
+    private void store(VAXOperand o, int size, boolean modified) {
+        if (o.kind == VAXOperand.REG) {
+            op(ILOAD, D);
+            if (size == 1) {
+                op(I2B);
+            } else if (size == 2) {
+                op(I2S);
+            }
+            op(DUP, ISTORE, R0 + o.rn);
+        } else {
+            op(ALOAD, VM);
+            if (modified) {
+                op(ILOAD, A);
+            } else {
+                address(o, size);
+            }
+            iconst(size);
+            op(ILOAD, D);
+            set();
+        }
+        op(ISTORE, D);
+    }
+
+    private void push(int src) {
+        int sp = R0 + VAX.SP;
+        op(ALOAD, VM, ILOAD, sp);
+        iconst(4);
+        op(ISUB, DUP, ISTORE, sp);
+        iconst(4);
+        op(ILOAD, src);
+        set();
+        op(POP);
+    }
+
+    private void flagsNZ(int d) {
+        op(ILOAD, d);
+        iconst(31);
+        op(IUSHR, ISTORE, N);
+        isZero(d);
+        op(ISTORE, Z);
+    }
+
+    private void isZero(int d) {
+        op(ILOAD, d, ILOAD, d, INEG, IOR);
+        iconst(31);
+        op(IUSHR);
+        iconst(1);
+        op(IXOR);
+    }
+
+    private void clear(int flag) {
+        iconst(0);
+        op(ISTORE, flag);
+    }
+
+    private void compareUnsigned(int a, int b) {
+        op(ILOAD, a, ILOAD, b);
+        invoke(INVOKESTATIC, "java/lang/Integer", "compareUnsigned", "(II)I");
+    }
+
+    // leave bit 31 of the value on the stack as 0 or 1
+    private void sign() {
+        iconst(31);
+        op(IUSHR);
+    }
+
+    private void writeBack() {
+        for (int i = 0; i < 16; ++i) {
+            if ((used & (1 << i)) != 0) {
+                op(ALOAD, REGS);
+                iconst(i);
+                op(ILOAD, R0 + i, IASTORE);
+            }
+        }
+        op(ALOAD, VM, ILOAD, N, ILOAD, Z, ILOAD, V, ILOAD, C);
+        invoke(INVOKEVIRTUAL, OWNER, "setNZVC", "(ZZZZ)V");
+    }
+
+    private void reload() {
+        for (int i = 0; i < 16; ++i) {
+            if ((used & (1 << i)) != 0) {
+                op(ALOAD, REGS);
+                iconst(i);
+                op(IALOAD, ISTORE, R0 + i);
+            }
+        }
+        op(ALOAD, VM);
+        invoke(INVOKEVIRTUAL, OWNER, "getNZVC", "()I");
+        op(DUP, DUP, DUP, ICONST_1, IAND, ISTORE, C);
+        op(ICONST_1, ISHR, ICONST_1, IAND, ISTORE, V);
+        iconst(2);
+        op(ISHR, ICONST_1, IAND, ISTORE, Z);
+        iconst(3);
+        op(ISHR, ICONST_1, IAND, ISTORE, N);
+    }
+
+    private void exit(int pc) {
+        writeBack();
+        op(ALOAD, REGS);
+        iconst(VAX.PC);
+        if (pc < 0) {
+            op(ILOAD, T);
+        } else {
+            iconst(pc);
+        }
+        op(IASTORE, RETURN);
+    }
+
+    // pc = next + (cond ? disp : 0), with cond (0 or 1) on the stack
+    private void branch(VAXInsn insn) {
+        op(INEG);
+        iconst(insn.oprs[insn.oprs.length - 1].disp);
+        op(IAND);
+        iconst(insn.next);
+        op(IADD, ISTORE, T);
+    }
+
+    private void condition(int op) {
+        switch (op) {
+            case 0x12: // bneq
+            case 0x13: // beql
+                this.op(ILOAD, Z);
                 break;
             case 0x14: // bgtr
             case 0x15: // bleq
-                s1 = fetch(1);
-                if ((n || z) == ((op & 1) != 0)) {
-                    r[PC] += s1;
-                }
+                this.op(ILOAD, N, ILOAD, Z, IOR);
                 break;
             case 0x18: // bgeq
             case 0x19: // blss
-                s1 = fetch(1);
-                if (n == ((op & 1) != 0)) {
-                    r[PC] += s1;
-                }
+                this.op(ILOAD, N);
                 break;
             case 0x1a: // bgtru
             case 0x1b: // blequ
-                s1 = fetch(1);
-                if ((c || z) == ((op & 1) != 0)) {
-                    r[PC] += s1;
-                }
+                this.op(ILOAD, C, ILOAD, Z, IOR);
                 break;
             case 0x1c: // bvc
             case 0x1d: // bvs
-                s1 = fetch(1);
-                if (v == ((op & 1) != 0)) {
-                    r[PC] += s1;
-                }
+                this.op(ILOAD, V);
                 break;
-            case 0x1e: // bgequ / bcc
-            case 0x1f: // blssu / bcs
-                s1 = fetch(1);
-                if (c == ((op & 1) != 0)) {
-                    r[PC] += s1;
-                }
+            case 0x1e: // bgequ
+            case 0x1f: // blssu
+                this.op(ILOAD, C);
                 break;
-            case 0xe0: // bbs
-            case 0xe1: // bbc
-                s1 = getOperand(4);
-                s2 = getOperand(1);
-                s3 = fetch(1);
-                if (((s2 >> s1) & 1) != (op & 1)) {
-                    r[PC] += s3;
-                }
+        }
+        if ((op & 1) == 0) {
+            iconst(1);
+            this.op(IXOR);
+        }
+    }
+
+    // returns the exit pc, -1 for T, or -2 to continue
+    private int inline(VAXInsn insn) {
+        VAXOperand[] o = insn.oprs;
+        int op = insn.op, size = insn.size;
+        switch (op) {
+            case 0x90: // movb
+            case 0xb0: // movw
+            case 0xd0: // movl
+                load(o[0], size, D);
+                store(o[1], size, false);
+                flagsNZ(D);
+                clear(V);
                 break;
-            case 0xe2: // bbss
-            case 0xe3: // bbcs
-            case 0xe4: // bbsc
-            case 0xe5: // bbcc
-                s1 = getOperand(4);
-                s2 = peekOperand(1);
-                if ((op & 4) == 0) {
-                    setOperand(1, s2 | (1 << s1));
+            case 0x80: // addb2
+            case 0xa0: // addw2
+            case 0xc0: // addl2
+            case 0x81: // addb3
+            case 0xa1: // addw3
+            case 0xc1: // addl3
+            case 0x82: // subb2
+            case 0xa2: // subw2
+            case 0xc2: // subl2
+            case 0x83: // subb3
+            case 0xa3: // subw3
+            case 0xc3: // subl3
+            {
+                boolean two = (op & 1) == 0, sub = (op & 2) != 0;
+                load(o[0], size, S1);
+                if (two) {
+                    modify(o[1], size, S2);
                 } else {
-                    setOperand(1, s2 & ~(1 << s1));
+                    load(o[1], size, S2);
                 }
-                s3 = fetch(1);
-                if (((s2 >> s1) & 1) != (op & 1)) {
-                    r[PC] += s3;
+                this.op(ILOAD, S2, ILOAD, S1, sub ? ISUB : IADD, ISTORE, D);
+                store(o[two ? 1 : 2], size, two);
+                flagsNZ(D);
+                // v: operands of the same sign (add) or different sign (sub)
+                this.op(ILOAD, S1, ILOAD, S2, IXOR);
+                if (!sub) {
+                    iconst(-1);
+                    this.op(IXOR);
                 }
-                break;
-            case 0xe8: // blbs
-            case 0xe9: // blbc
-                s1 = getOperand(4);
-                s2 = fetch(1);
-                if ((s1 & 1) != (op & 1)) {
-                    r[PC] += s2;
+                this.op(ILOAD, S2, ILOAD, D, IXOR, IAND);
+                sign();
+                this.op(ISTORE, V);
+                compareUnsigned(S2, D);
+                if (!sub) {
+                    this.op(INEG);
                 }
+                sign();
+                this.op(ISTORE, C);
                 break;
-            case 0xf4: // sobgeq
-                s1 = peekOperand(4);
-                d = setOperand(4, s1 - 1);
-                setNZVC(d < 0, d == 0, s1 < 0 && d >= 0, c);
-                s2 = fetch(1);
-                if (d >= 0) {
-                    r[PC] += s2;
-                }
-                break;
-            case 0xf5: // sobgtr
-                s1 = peekOperand(4);
-                d = setOperand(4, s1 - 1);
-                setNZVC(d < 0, d == 0, s1 < 0 && d >= 0, c);
-                s2 = fetch(1);
-                if (d > 0) {
-                    r[PC] += s2;
-                }
-                break;
-            case 0xf1: // acbl
-                size = 4;
-            case 0x9d: // acbb
-            case 0x3d: // acbw
-                s1 = getOperand(size);
-                s2 = getOperand(size);
-                s3 = peekOperand(size);
-                d = setOperand(size, s3 + s2);
-                setNZVC(d < 0, d == 0,
-                        (s2 < 0) == (s3 < 0) && (s3 < 0) != (d < 0),
-                        c);
-                tmp = fetch(2);
-                if ((s2 >= 0 && d < s1) || (s2 < 0 && d >= s1)) {
-                    r[PC] += tmp;
-                }
-                break;
-            case 0x8f: // caseb
-            case 0xaf: // casew
-            case 0xcf: // casel
-                s1 = getOperand(size);
-                s2 = getOperand(size);
-                s3 = getOperand(size);
-                tmp = s1 - s2;
-                if (0 <= tmp && tmp <= s3) {
-                    r[PC] += get(r[PC] + (tmp << 1), 2);
-                } else {
-                    r[PC] += (s3 + 1) << 1;
-                }
-                d = tmp - s3;
-                setNZVC(d < 0, d == 0, false,
-                        Integer.compareUnsigned(tmp, d) < 0);
-                break;
-            case 0x99: // cvtbw
-                s1 = getOperand(1);
-                d = setOperand(2, s1);
-                setNZVC(d < 0, d == 0, s1 != d, false);
-                break;
-            case 0x98: // cvtbl
-                s1 = getOperand(1);
-                d = setOperand(4, s1);
-                setNZVC(d < 0, d == 0, s1 != d, false);
-                break;
-            case 0x33: // cvtwb
-                s1 = getOperand(2);
-                d = setOperand(1, s1);
-                setNZVC(d < 0, d == 0, s1 != d, false);
-                break;
-            case 0x32: // cvtwl
-                s1 = getOperand(2);
-                d = setOperand(4, s1);
-                setNZVC(d < 0, d == 0, s1 != d, false);
-                break;
-            case 0xf6: // cvtlb
-                s1 = getOperand(4);
-                d = setOperand(1, s1);
-                setNZVC(d < 0, d == 0, s1 != d, false);
-                break;
-            case 0xf7: // cvtlw
-                s1 = getOperand(4);
-                d = setOperand(2, s1);
-                setNZVC(d < 0, d == 0, s1 != d, false);
-                break;
-            case 0xf9: // cvtlp
-                s1 = getOperand(4);
-                s2 = getOperand(2);
-                s3 = getAddress(1);
-                cvtlp(s1, s2, s3);
-                break;
-            case 0x38: // editpc
-                s1 = getOperand(2);
-                s2 = getAddress(1);
-                s3 = getAddress(1);
-                editpc(s1, s2, s3, getAddress(1));
-                break;
-            case 0x9a: // movzbl
-                s1 = getOperand(1);
-                setOperand(4, Byte.toUnsignedInt((byte) s1));
-                setNZVC(false, s1 == 0, false, c);
-                break;
-            case 0x9b: // movzbw
-                s1 = getOperand(1);
-                setOperand(2, Byte.toUnsignedInt((byte) s1));
-                setNZVC(false, s1 == 0, false, c);
-                break;
-            case 0x3c: // movzwl
-                s1 = getOperand(2);
-                setOperand(4, Short.toUnsignedInt((short) s1));
-                setNZVC(false, s1 == 0, false, c);
-                break;
-            case 0xee: // extv
-                s1 = getOperand(4);
-                s2 = getOperand(1);
-                s3 = getOperand(1);
-                d = setOperand(4, s2 == 0 ? 0 : s3 << (32 - s1 - s2) >> (32 - s2));
-                setNZVC(d < 0, d == 0, false, false);
-                break;
-            case 0xef: // extzv
-                s1 = getOperand(4);
-                s2 = getOperand(1);
-                s3 = getOperand(1);
-                d = setOperand(4, s2 == 0 ? 0 : (s3 >> s1) & ((1 << s2) - 1));
-                setNZVC(d < 0, d == 0, false, false);
-                break;
-            case 0x80: // addb2
-            case 0xa0: // addw2
-            case 0xc0: // addl2
-            case 0x81: // addb3
-            case 0xa1: // addw3
-            case 0xc1: // addl3
-                s1 = getOperand(size);
-                s2 = (op & 1) == 0 ? peekOperand(size) : getOperand(size);
-                d = setOperand(size, s2 + s1);
-                setNZVC(d < 0, d == 0,
-                        (s1 < 0) == (s2 < 0) && (s2 < 0) != (d < 0),
-                        Integer.compareUnsigned(s2, d) > 0);
-                break;
-            case 0x82: // subb2
-            case 0xa2: // subw2
-            case 0xc2: // subl2
-            case 0x83: // subb3
-            case 0xa3: // subw3
-            case 0xc3: // subl3
-                s1 = getOperand(size);
-                s2 = (op & 1) == 0 ? peekOperand(size) : getOperand(size);
-                d = setOperand(size, s2 - s1);
-                setNZVC(d < 0, d == 0,
-                        (s1 < 0) != (s2 < 0) && (s2 < 0) != (d < 0),
-                        Integer.compareUnsigned(s2, d) < 0);
-                break;
-            case 0x90: // movb
-            case 0xb0: // movw
-            case 0xd0: // movl
-                d = setOperand(size, getOperand(size));
-                setNZVC(d < 0, d == 0, false, c);
-                break;
-            case 0x91: // cmpb
-            case 0xb1: // cmpw
-            case 0xd1: // cmpl
-                s1 = getOperand(size);
-                s2 = getOperand(size);
-                d = s1 - s2;
-                setNZVC(d < 0, d == 0,
-                        (s1 < 0) != (s2 < 0) && (s1 < 0) != (d < 0),
-                        Integer.compareUnsigned(s1, d) < 0);
-                break;
-            case 0x94: // clrb
-            case 0xb4: // clrw
-            case 0xd4: // clrl / clrf
-            case 0x7c: // clrq / clrd
-                setOperand(size, 0);
-                setNZVC(false, true, false, c);
+            }
+            case 0x91: // cmpb
+            case 0xb1: // cmpw
+            case 0xd1: // cmpl
+                load(o[0], size, S1);
+                load(o[1], size, S2);
+                this.op(ILOAD, S1, ILOAD, S2, ISUB, ISTORE, D);
+                flagsNZ(D);
+                this.op(ILOAD, S1, ILOAD, S2, IXOR, ILOAD, S1, ILOAD, D, IXOR, IAND);
+                sign();
+                this.op(ISTORE, V);
+                compareUnsigned(S1, D);
+                sign();
+                this.op(ISTORE, C);
                 break;
             case 0x95: // tstb
             case 0xb5: // tstw
             case 0xd5: // tstl
-                s1 = getOperand(size);
-                setNZVC(s1 < 0, s1 == 0, false, false);
+                load(o[0], size, D);
+                flagsNZ(D);
+                clear(V);
+                clear(C);
                 break;
             case 0x96: // incb
             case 0xb6: // incw
             case 0xd6: // incl
-                s1 = peekOperand(size);
-                d = setOperand(size, s1 + 1);
-                setNZVC(d < 0, d == 0, s1 >= 0 && d < 0, d == 0);
+                modify(o[0], size, S1);
+                this.op(ILOAD, S1);
+                iconst(1);
+                this.op(IADD, ISTORE, D);
+                store(o[0], size, true);
+                flagsNZ(D);
+                this.op(ILOAD, S1);
+                iconst(-1);
+                this.op(IXOR, ILOAD, D, IAND);
+                sign();
+                this.op(ISTORE, V, ILOAD, Z, ISTORE, C);
                 break;
             case 0x97: // decb
             case 0xb7: // decw
             case 0xd7: // decl
-                s1 = peekOperand(size);
-                d = setOperand(size, s1 - 1);
-                setNZVC(d < 0, d == 0, s1 < 0 && d >= 0, s1 == 0);
-                break;
-            case 0x9e: // movab
-            case 0x3e: // movaw
-            case 0xde: // moval
-                s1 = setOperand(4, getAddress(size));
-                setNZVC(s1 < 0, s1 == 0, false, c);
-                break;
-            case 0x9f: // pushab
-            case 0x3f: // pushaw
-            case 0xdf: // pushal
-                push(4, s1 = getAddress(size));
-                setNZVC(s1 < 0, s1 == 0, false, c);
+                modify(o[0], size, S1);
+                this.op(ILOAD, S1);
+                iconst(1);
+                this.op(ISUB, ISTORE, D);
+                store(o[0], size, true);
+                flagsNZ(D);
+                this.op(ILOAD, D);
+                iconst(-1);
+                this.op(IXOR, ILOAD, S1, IAND);
+                sign();
+                this.op(ISTORE, V);
+                isZero(S1);
+                this.op(ISTORE, C);
                 break;
-            case 0xdd: // pushl
-                push(4, s1 = getOperand(4));
-                setNZVC(s1 < 0, s1 == 0, false, c);
+            case 0x94: // clrb
+            case 0xb4: // clrw
+            case 0xd4: // clrl
+                clear(D);
+                store(o[0], size, false);
+                clear(N);
+                iconst(1);
+                this.op(ISTORE, Z);
+                clear(V);
                 break;
             case 0x88: // bisb2
             case 0xa8: // bisw2
@@ -2046,60 +2057,5761 @@ class VAX {
             case 0x89: // bisb3
             case 0xa9: // bisw3
             case 0xc9: // bisl3
-                s1 = getOperand(size);
-                s2 = (op & 1) == 0 ? peekOperand(size) : getOperand(size);
-                d = setOperand(size, s2 | s1);
-                setNZVC(d < 0, d == 0, false, c);
-                break;
             case 0x8a: // bicb2
             case 0xaa: // bicw2
             case 0xca: // bicl2
             case 0x8b: // bicb3
             case 0xab: // bicw3
             case 0xcb: // bicl3
-                s1 = getOperand(size);
-                s2 = (op & 1) == 0 ? peekOperand(size) : getOperand(size);
-                d = setOperand(size, s2 & ~s1);
-                setNZVC(d < 0, d == 0, false, c);
+            case 0x8c: // xorb2
+            case 0xac: // xorw2
+            case 0xcc: // xorl2
+            case 0x8d: // xorb3
+            case 0xad: // xorw3
+            case 0xcd: // xorl3
+            {
+                boolean two = (op & 1) == 0;
+                load(o[0], size, S1);
+                if (two) {
+                    modify(o[1], size, S2);
+                } else {
+                    load(o[1], size, S2);
+                }
+                this.op(ILOAD, S2, ILOAD, S1);
+                if ((op & 4) != 0) {
+                    this.op(IXOR);
+                } else if ((op & 2) == 0) {
+                    this.op(IOR);
+                } else {
+                    iconst(-1);
+                    this.op(IXOR, IAND);
+                }
+                this.op(ISTORE, D);
+                store(o[two ? 1 : 2], size, two);
+                flagsNZ(D);
+                clear(V);
                 break;
+            }
+            case 0x84: // mulb2
+            case 0xa4: // mulw2
+            case 0xc4: // mull2
+            case 0x85: // mulb3
+            case 0xa5: // mulw3
+            case 0xc5: // mull3
+            {
+                boolean two = (op & 1) == 0;
+                load(o[0], size, S1);
+                if (two) {
+                    modify(o[1], size, S2);
+                } else {
+                    load(o[1], size, S2);
+                }
+                this.op(ILOAD, S2, ILOAD, S1, IMUL, ISTORE, D);
+                store(o[two ? 1 : 2], size, two);
+                flagsNZ(D);
+                // V when the stored product differs from the exact one
+                this.op(ILOAD, S2, I2L, ILOAD, S1, I2L, LMUL, ILOAD, D, I2L, LCMP);
+                iconst(1);
+                this.op(IAND, ISTORE, V);
+                clear(C);
+                break;
+            }
             case 0x93: // bitb
             case 0xb3: // bitw
             case 0xd3: // bitl
-                s1 = getOperand(size);
-                s2 = getOperand(size);
-                tmp = s1 & s2;
-                setNZVC(tmp < 0, tmp == 0, false, c);
+                load(o[0], size, S1);
+                load(o[1], size, S2);
+                this.op(ILOAD, S1, ILOAD, S2, IAND, ISTORE, D);
+                flagsNZ(D);
+                clear(V);
+                break;
+            case 0x92: // mcomb
+            case 0xb2: // mcomw
+            case 0xd2: // mcoml
+                load(o[0], size, S1);
+                this.op(ILOAD, S1);
+                iconst(-1);
+                this.op(IXOR, ISTORE, D);
+                store(o[1], size, false);
+                flagsNZ(D);
+                clear(V);
                 break;
             case 0x8e: // mnegb
             case 0xae: // mnegw
             case 0xce: // mnegl
-                s1 = getOperand(size);
-                d = setOperand(size, -s1);
-                setNZVC(d < 0, d == 0, s1 == d, d != 0);
+                load(o[0], size, S1);
+                this.op(ILOAD, S1, INEG, ISTORE, D);
+                store(o[1], size, false);
+                flagsNZ(D);
+                this.op(ILOAD, S1, ILOAD, D, IXOR, ISTORE, T);
+                isZero(T);
+                this.op(ISTORE, V, ILOAD, Z);
+                iconst(1);
+                this.op(IXOR, ISTORE, C);
+                break;
+            case 0x9a: // movzbl
+            case 0x9b: // movzbw
+            case 0x3c: // movzwl
+            {
+                int ssize = op == 0x3c ? 2 : 1;
+                load(o[0], ssize, S1);
+                this.op(ILOAD, S1);
+                iconst(ssize == 1 ? 0xff : 0xffff);
+                this.op(IAND, ISTORE, D);
+                store(o[1], op == 0x9b ? 2 : 4, false);
+                clear(N);
+                isZero(S1);
+                this.op(ISTORE, Z);
+                clear(V);
+                break;
+            }
+            case 0x99: // cvtbw
+            case 0x98: // cvtbl
+            case 0x33: // cvtwb
+            case 0x32: // cvtwl
+            case 0xf6: // cvtlb
+            case 0xf7: // cvtlw
+            {
+                int ssize = op >= 0xf6 ? 4 : op >= 0x98 ? 1 : 2;
+                int dsize = op == 0x99 || op == 0xf7 ? 2
+                        : op == 0x33 || op == 0xf6 ? 1 : 4;
+                load(o[0], ssize, S1);
+                this.op(ILOAD, S1, ISTORE, D);
+                store(o[1], dsize, false);
+                flagsNZ(D);
+                this.op(ILOAD, S1, ILOAD, D, IXOR, ISTORE, T);
+                isZero(T);
+                iconst(1);
+                this.op(IXOR, ISTORE, V);
+                clear(C);
+                break;
+            }
+            case 0x9e: // movab
+            case 0x3e: // movaw
+            case 0xde: // moval
+                address(o[0], size);
+                this.op(ISTORE, D);
+                store(o[1], 4, false);
+                flagsNZ(D);
+                clear(V);
                 break;
-            case 0x3a: // locc
-                s1 = getOperand(1);
-                r[0] = getOperand(2);
-                r[1] = getAddress(1);
-                while (r[0] != 0 && mem[r[1]] != s1) {
-                    --r[0];
-                    ++r[1];
-                }
-                setNZVC(false, r[0] == 0, false, false);
+            case 0x9f: // pushab
+            case 0x3f: // pushaw
+            case 0xdf: // pushal
+                address(o[0], size);
+                this.op(ISTORE, D);
+                push(D);
+                flagsNZ(D);
+                clear(V);
                 break;
-            case 0x3b: // skpc
-                s1 = getOperand(1);
-                r[0] = getOperand(2);
-                r[1] = getAddress(1);
-                while (r[0] != 0 && mem[r[1]] == s1) {
-                    --r[0];
-                    ++r[1];
-                }
-                setNZVC(false, r[0] == 0, false, false);
+            case 0xdd: // pushl
+                load(o[0], 4, D);
+                push(D);
+                flagsNZ(D);
+                clear(V);
                 break;
+            case 0x11: // brb
+            case 0x31: // brw
+                return insn.next + o[0].disp;
+            case 0xf4: // sobgeq
+            case 0xf5: // sobgtr
+                modify(o[0], 4, S1);
+                this.op(ILOAD, S1);
+                iconst(1);
+                this.op(ISUB, ISTORE, D);
+                store(o[0], 4, true);
+                flagsNZ(D);
+                this.op(ILOAD, D);
+                iconst(-1);
+                this.op(IXOR, ILOAD, S1, IAND);
+                sign();
+                this.op(ISTORE, V);
+                if (op == 0xf4) { // d >= 0
+                    this.op(ILOAD, D);
+                    iconst(-1);
+                    this.op(IXOR);
+                } else { // d > 0
+                    this.op(ILOAD, D, INEG, ILOAD, D);
+                    iconst(-1);
+                    this.op(IXOR, IAND);
+                }
+                sign();
+                branch(insn);
+                return -1;
             default:
-                throw error("%08x: unknown opcode %02x", r[PC] - 1, op);
+                condition(op);
+                branch(insn);
+                return -1;
+        }
+        return -2;
+    }
+
+    private byte[] generate() {
+        VAXInsn[] insns = block.insns;
+        boolean[] inline = new boolean[insns.length];
+        boolean any = false;
+        for (int i = 0; i < insns.length; ++i) {
+            if (inline[i] = supported(insns[i])) {
+                any = true;
+                for (VAXOperand o : insns[i].oprs) {
+                    use(o);
+                }
+                if (pushes(insns[i].op)) {
+                    used |= 1 << VAX.SP;
+                }
+            }
+        }
+        if (!any) {
+            return null;
+        }
+        reload();
+        iconst(block.pc);
+        op(ISTORE, IPC);
+        int exit = -2;
+        for (int i = 0; i < insns.length; ++i) {
+            VAXInsn insn = insns[i];
+            if (inline[i]) {
+                iconst(insn.pc);
+                op(ISTORE, IPC);
+                int start = code.size();
+                exit = inline(insn);
+                if (start < code.size()) {
+                    ranges.add(new int[]{start, code.size()});
+                }
+            } else {
+                writeBack();
+                op(ALOAD, VM, ALOAD, INSNS);
+                iconst(i);
+                op(AALOAD);
+                invoke(INVOKEVIRTUAL, OWNER, "execute", "(Lvaxrun/VAXInsn;)V");
+                if (i == insns.length - 1) {
+                    op(RETURN);
+                    exit = -3;
+                } else {
+                    reload();
+                }
+            }
+        }
+        if (exit != -3) {
+            exit(exit == -2 ? block.end : exit);
+        }
+        // fault handler: write back state, then rethrow
+        int handler = code.size();
+        writeBack();
+        op(ALOAD, VM, ILOAD, IPC);
+        invoke(INVOKEVIRTUAL, OWNER, "fault", "(I)V");
+        op(ATHROW);
+        if (code.size() > 0xfff0) {
+            return null;
+        }
+        return classFile(handler);
+    }
+
+    private static void u2(ByteArrayOutputStream out, int v) {
+        out.write(v >> 8);
+        out.write(v);
+    }
+
+    private static void u4(ByteArrayOutputStream out, int v) {
+        u2(out, v >> 16);
+        u2(out, v);
+    }
+
+    private byte[] classFile(int handler) {
+        int self = cls(NAME), object = cls("java/lang/Object");
+        int iface = cls("vaxrun/VAXCode"), throwable = cls("java/lang/Throwable");
+        int init = method("java/lang/Object", "<init>", "()V");
+        int codeName = utf8("Code"), stackMap = utf8("StackMapTable");
+        int initName = utf8("<init>"), initDesc = utf8("()V");
+        int runName = utf8("run"), runDesc = utf8(RUN);
+        int vax = cls(OWNER), regs = cls("[I"), insns = cls("[Lvaxrun/VAXInsn;");
+
+        // a single full frame at the handler: registers in use, flags, ipc
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(255);
+        u2(frame, handler);
+        u2(frame, IPC + 1);
+        for (int c : new int[]{self, vax, regs, insns}) {
+            frame.write(7);
+            u2(frame, c);
+        }
+        for (int i = 0; i < 16; ++i) {
+            frame.write((used & (1 << i)) != 0 ? 1 : 0);
+        }
+        for (int i = N; i <= IPC; ++i) {
+            frame.write(1);
+        }
+        u2(frame, 1);
+        frame.write(7);
+        u2(frame, throwable);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        u4(out, 0xcafebabe);
+        u2(out, 0);
+        u2(out, 61);
+        u2(out, pcount);
+        out.write(pool.toByteArray(), 0, pool.size());
+        u2(out, 0x31); // public final super
+        u2(out, self);
+        u2(out, object);
+        u2(out, 1);
+        u2(out, iface);
+        u2(out, 0); // fields
+        u2(out, 2); // methods
+
+        u2(out, 1);
+        u2(out, initName);
+        u2(out, initDesc);
+        u2(out, 1);
+        u2(out, codeName);
+        u4(out, 17);
+        u2(out, 1);
+        u2(out, 1);
+        u4(out, 5);
+        out.write(0x2a); // aload_0
+        out.write(INVOKESPECIAL);
+        u2(out, init);
+        out.write(RETURN);
+        u2(out, 0);
+        u2(out, 0);
+
+        u2(out, 1);
+        u2(out, runName);
+        u2(out, runDesc);
+        u2(out, 1);
+        u2(out, codeName);
+        u4(out, 8 + code.size() + 2 + ranges.size() * 8 + 2 + 6 + 2 + frame.size());
+        u2(out, 16);
+        u2(out, T + 1);
+        u4(out, code.size());
+        out.write(code.toByteArray(), 0, code.size());
+        u2(out, ranges.size());
+        for (int[] range : ranges) {
+            u2(out, range[0]);
+            u2(out, range[1]);
+            u2(out, handler);
+            u2(out, 0); // any
+        }
+        u2(out, 1);
+        u2(out, stackMap);
+        u4(out, 2 + frame.size());
+        u2(out, 1);
+        out.write(frame.toByteArray(), 0, frame.size());
+
+        u2(out, 0); // attributes
+        return out.toByteArray();
+    }
+}
+
+// an immutable image section shared by all guests mapping it
+class VAXSegment {
+
+    public final ByteBuffer data;
+    public final int pages;
+    private final byte[][] frames;
+
+    public VAXSegment(ByteBuffer data) {
+        this.data = data;
+        pages = (data.capacity() + 0x1ff) >>> 9;
+        frames = new byte[pages][];
+    }
+
+    // page k as a heap frame, zero-padded after the end of the section
+    public synchronized byte[] frame(int k) {
+        if (frames[k] == null) {
+            byte[] f = new byte[512];
+            data.get(k << 9, f, 0, Math.min(512, data.capacity() - (k << 9)));
+            frames[k] = f;
+        }
+        return frames[k];
+    }
+}
+
+class VAXOutput {
+
+    // small guest writes are gathered here and handed to the stream in bulk
+    private final byte[] buf = new byte[0x2000];
+    private final OutputStream out;
+    private int used;
+
+    public VAXOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    public synchronized void put(byte[] src, int off, int len) throws IOException {
+        if (len > buf.length - used) {
+            flush();
+            if (len > buf.length) {
+                out.write(src, off, len);
+                return;
+            }
+        }
+        System.arraycopy(src, off, buf, used, len);
+        used += len;
+    }
+
+    public synchronized void put(ByteBuffer src, int off, int len) throws IOException {
+        if (len > buf.length - used) {
+            flush();
+        }
+        src.get(off, buf, used, len); // at most a page, always fits
+        used += len;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (used > 0) {
+            out.write(buf, 0, used);
+            used = 0;
+        }
+        out.flush();
+    }
+}
+
+abstract class VAXFile {
+
+    // V7 errno values returned negated by the file operations
+    public static final int ENOENT = 2, EIO = 5, ENOEXEC = 8, EBADF = 9, ECHILD = 10;
+    public static final int ENOMEM = 12, EACCES = 13;
+    public static final int EFAULT = 14, EEXIST = 17, ENOTDIR = 20, EISDIR = 21;
+    public static final int EAGAIN = 11, EINVAL = 22, EMFILE = 24, ENOTTY = 25;
+    public static final int ESPIPE = 29, EPIPE = 32;
+    public static final int S_IFCHR = 020000, S_IFDIR = 040000, S_IFREG = 0100000;
+    // descriptors that share the file after dup and fork
+    private int refs = 1;
+
+    public synchronized void retain() {
+        ++refs;
+    }
+
+    public void release() throws IOException {
+        boolean last;
+        synchronized (this) {
+            last = --refs == 0;
+        }
+        if (last) {
+            close();
+        }
+    }
+
+    public abstract int read(VAXMemory mem, int addr, int len) throws IOException, VAXTrap;
+
+    public abstract int write(VAXMemory mem, int addr, int len) throws IOException, VAXTrap;
+
+    public long seek(long off, int whence) throws IOException {
+        return -ESPIPE;
+    }
+
+    // whether read or write can go on without blocking the carrier thread
+    public boolean ready(boolean write) throws IOException {
+        return true;
+    }
+
+    // calls wake once the file may have become ready
+    public void await(boolean write, Runnable wake) {
+        wake.run();
+    }
+
+    public Path path() {
+        return null;
+    }
+
+    public void close() throws IOException {
+    }
+}
+
+class VAXConsole extends VAXFile {
+
+    private InputStream in;
+    private ReadableByteChannel ch;
+    public VAXOutput out;
+    // stderr and traced runs write through immediately
+    public boolean sync;
+    // a byte or the end of input picked up for parked readers
+    private int pending = -1;
+    private boolean eof;
+    private ArrayList<Runnable> waiters;
+
+    public void setInput(InputStream in) {
+        this.in = in;
+        ch = Channels.newChannel(in);
+    }
+
+    @Override
+    public synchronized int read(VAXMemory mem, int addr, int len) throws IOException, VAXTrap {
+        if (in == null) {
+            return -EBADF;
+        } else if (len > 0 && eof) {
+            eof = false;
+            return 0;
+        }
+        // like a terminal, return what is there once something has been read
+        int ret = 0;
+        for (ByteBuffer dst : mem.views(addr, len, true)) {
+            if (pending >= 0) {
+                dst.put((byte) pending);
+                pending = -1;
+                ++ret;
+                if (in.available() == 0) {
+                    break;
+                }
+            }
+            int n = ch.read(dst);
+            if (n > 0) {
+                ret += n;
+            }
+            if (dst.hasRemaining() || in.available() == 0) {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized boolean ready(boolean write) throws IOException {
+        return write || in == null || pending >= 0 || eof || in.available() > 0;
+    }
+
+    // a helper thread blocks on the stream instead of the carrier
+    @Override
+    public synchronized void await(boolean write, Runnable wake) {
+        if (waiters != null) {
+            waiters.add(wake);
+            return;
+        }
+        waiters = new ArrayList<>();
+        waiters.add(wake);
+        Thread t = new Thread(() -> {
+            int b;
+            try {
+                b = in.read();
+            } catch (IOException e) {
+                b = -1;
+            }
+            ArrayList<Runnable> ws;
+            synchronized (this) {
+                if (b < 0) {
+                    eof = true;
+                } else {
+                    pending = b;
+                }
+                ws = waiters;
+                waiters = null;
+            }
+            ws.forEach(Runnable::run);
+        }, "vax-stdin");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public int write(VAXMemory mem, int addr, int len) throws IOException, VAXTrap {
+        if (out == null) {
+            return -EBADF;
+        }
+        mem.output(addr, len, out);
+        if (sync) {
+            out.flush();
+        }
+        return Math.max(len, 0);
+    }
+
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+}
+
+class VAXPipe {
+
+    // V7 pipes hold 4096 bytes; head is only advanced by the reading end
+    // and tail by the writing end, which publish them to each other
+    public static final int SIZE = 4096;
+    private static final VarHandle HEAD, TAIL, READER, WRITER;
+    private final byte[] buf = new byte[SIZE];
+    private long head, tail;
+    private volatile boolean readClosed, writeClosed;
+    private volatile Runnable reader, writer;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            HEAD = l.findVarHandle(VAXPipe.class, "head", long.class);
+            TAIL = l.findVarHandle(VAXPipe.class, "tail", long.class);
+            READER = l.findVarHandle(VAXPipe.class, "reader", Runnable.class);
+            WRITER = l.findVarHandle(VAXPipe.class, "writer", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public final VAXFile in = new End(false), out = new End(true);
+
+    private class End extends VAXFile {
+
+        private final boolean write;
+
+        public End(boolean write) {
+            this.write = write;
+        }
+
+        @Override
+        public int read(VAXMemory mem, int addr, int len) throws IOException, VAXTrap {
+            return write ? -EBADF : VAXPipe.this.read(mem, addr, len);
+        }
+
+        @Override
+        public int write(VAXMemory mem, int addr, int len) throws IOException, VAXTrap {
+            return write ? VAXPipe.this.write(mem, addr, len) : -EBADF;
+        }
+
+        // the close flag is read before the ring, so data published
+        // before a close is always seen with it
+        @Override
+        public boolean ready(boolean w) {
+            if (w != write) {
+                return true;
+            } else if (write) {
+                boolean closed = readClosed;
+                return closed || tail - (long) HEAD.getAcquire(VAXPipe.this) < SIZE;
+            }
+            boolean closed = writeClosed;
+            return closed || (long) TAIL.getAcquire(VAXPipe.this) > head;
+        }
+
+        @Override
+        public void await(boolean w, Runnable wake) {
+            VarHandle slot = write ? WRITER : READER;
+            for (;;) {
+                Runnable prev = (Runnable) slot.getVolatile(VAXPipe.this);
+                Runnable next = prev == null ? wake : () -> {
+                    prev.run();
+                    wake.run();
+                };
+                if (slot.compareAndSet(VAXPipe.this, prev, next)) {
+                    break;
+                }
+            }
+            // the other end may have moved before it could see the waiter
+            if (ready(w)) {
+                signal(slot);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (write) {
+                writeClosed = true;
+                signal(READER);
+            } else {
+                readClosed = true;
+                signal(WRITER);
+            }
+        }
+    }
+
+    private void signal(VarHandle slot) {
+        if (slot.getVolatile(this) != null) {
+            Runnable w = (Runnable) slot.getAndSet(this, null);
+            if (w != null) {
+                w.run();
+            }
+        }
+    }
+
+    // the ends serialize their own side, so the ring itself sees one
+    // producer and one consumer even when descriptors are shared
+    private int read(VAXMemory mem, int addr, int len) throws VAXTrap {
+        synchronized (in) {
+            // end of file only when the writer had closed before the
+            // ring was found empty
+            boolean closed = writeClosed;
+            long h = head, n = Math.min(len, (long) TAIL.getAcquire(this) - h);
+            if (n <= 0) {
+                return len <= 0 || closed ? 0 : -VAXFile.EAGAIN;
+            }
+            for (ByteBuffer dst : mem.views(addr, (int) n, true)) {
+                while (dst.hasRemaining()) {
+                    int i = (int) h & (SIZE - 1), k = Math.min(dst.remaining(), SIZE - i);
+                    dst.put(buf, i, k);
+                    h += k;
+                }
+            }
+            HEAD.setRelease(this, h);
+            signal(WRITER);
+            return (int) n;
+        }
+    }
+
+    private int write(VAXMemory mem, int addr, int len) throws VAXTrap {
+        synchronized (out) {
+            if (readClosed) {
+                return -VAXFile.EPIPE;
+            }
+            long t = tail, n = Math.min(len, SIZE - (t - (long) HEAD.getAcquire(this)));
+            if (n <= 0) {
+                return len <= 0 ? 0 : -VAXFile.EAGAIN;
+            }
+            for (ByteBuffer src : mem.views(addr, (int) n, false)) {
+                while (src.hasRemaining()) {
+                    int i = (int) t & (SIZE - 1), k = Math.min(src.remaining(), SIZE - i);
+                    src.get(buf, i, k);
+                    t += k;
+                }
+            }
+            TAIL.setRelease(this, t);
+            signal(READER);
+            return (int) n;
+        }
+    }
+}
+
+class VAXChannelFile extends VAXFile {
+
+    private final FileChannel ch;
+    private final Path path;
+    private final boolean readable, writable;
+
+    public VAXChannelFile(FileChannel ch, Path path, boolean readable, boolean writable) {
+        this.ch = ch;
+        this.path = path;
+        this.readable = readable;
+        this.writable = writable;
+    }
+
+    @Override
+    public int read(VAXMemory mem, int addr, int len) throws IOException, VAXTrap {
+        if (!readable) {
+            return -EBADF;
+        }
+        ByteBuffer[] dsts = mem.views(addr, len, true);
+        long ret = 0;
+        for (long n; ret < len && (n = ch.read(dsts)) > 0;) {
+            ret += n;
+        }
+        return (int) ret;
+    }
+
+    @Override
+    public int write(VAXMemory mem, int addr, int len) throws IOException, VAXTrap {
+        if (!writable) {
+            return -EBADF;
+        }
+        ByteBuffer[] srcs = mem.views(addr, len, false);
+        long ret = 0;
+        while (ret < len) {
+            ret += ch.write(srcs);
+        }
+        return (int) ret;
+    }
+
+    @Override
+    public long seek(long off, int whence) throws IOException {
+        if (whence >= 3) {
+            whence -= 3;
+            off *= 512;
+        }
+        long pos;
+        switch (whence) {
+            case 0:
+                pos = off;
+                break;
+            case 1:
+                pos = ch.position() + off;
+                break;
+            case 2:
+                pos = ch.size() + off;
+                break;
+            default:
+                return -EINVAL;
+        }
+        if (pos < 0) {
+            return -EINVAL;
+        }
+        ch.position(pos);
+        return pos;
+    }
+
+    @Override
+    public Path path() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+}
+
+abstract class VAXMemory {
+
+    public static final int R = 1, W = 2, X = 4;
+    private static final byte[] ZERO = new byte[512];
+    public final int size;
+    // 512-byte page frames are allocated on first write;
+    // readable/writable mark the pages that the guest may access directly
+    private final boolean[] readable, writable, allocated, shared;
+    private final byte[] perms;
+    // pages backed by a file image are filled in on first access
+    private final VAXSegment[] sources;
+    private final int[] offsets;
+    private final VAXTrap trap;
+
+    protected VAXMemory(int size, VAXTrap trap) {
+        this.size = (size + 0x1ff) & ~0x1ff;
+        int n = this.size >>> 9;
+        readable = new boolean[n];
+        writable = new boolean[n];
+        allocated = new boolean[n];
+        shared = new boolean[n];
+        perms = new byte[n];
+        sources = new VAXSegment[n];
+        offsets = new int[n];
+        this.trap = trap;
+    }
+
+    public static VAXMemory create(int size, VAXTrap trap, boolean direct) {
+        return direct ? new VAXDirectMemory(size, trap) : new VAXHeapMemory(size, trap);
+    }
+
+    // frame access within a page, size is 1, 2 or 4
+    protected abstract void alloc(int page);
+
+    protected abstract int loadByte(int page, int off);
+
+    protected abstract int loadShort(int page, int off);
+
+    protected abstract int loadInt(int page, int off);
+
+    protected int load(int page, int off, int size) {
+        switch (size) {
+            case 1:
+                return loadByte(page, off);
+            case 2:
+                return loadShort(page, off);
+        }
+        return loadInt(page, off);
+    }
+
+    // eight bytes at off, which must not pass the end of the page
+    protected abstract long loadLong(int page, int off);
+
+    // atomic compare-and-set of the aligned longword at off
+    protected abstract boolean cas(int page, int off, int expect, int value);
+
+    protected abstract void storeByte(int page, int off, int value);
+
+    protected abstract void storeShort(int page, int off, int value);
+
+    protected abstract void storeInt(int page, int off, int value);
+
+    protected void store(int page, int off, int size, int value) {
+        switch (size) {
+            case 1:
+                storeByte(page, off, value);
+                return;
+            case 2:
+                storeShort(page, off, value);
+                return;
+        }
+        storeInt(page, off, value);
+    }
+
+    protected abstract void copy(int page, ByteBuffer src, int off, int len);
+
+    // use page k of seg in place, when the store can
+    protected abstract boolean attach(int page, VAXSegment seg, int k);
+
+    // replace a shared frame by a private copy
+    protected abstract void unshare(int page);
+
+    // a new address space sharing every page of this one copy-on-write
+    public abstract VAXMemory fork(VAXTrap trap);
+
+    protected void share(VAXMemory m) {
+        for (int i = 0; i < perms.length; ++i) {
+            perms[i] = m.perms[i];
+            sources[i] = m.sources[i];
+            offsets[i] = m.offsets[i];
+            allocated[i] = m.allocated[i];
+            shared[i] = m.shared[i] = allocated[i];
+            update(i);
+            m.update(i);
+        }
+    }
+
+    protected abstract void output(int page, int off, int len, VAXOutput dst) throws IOException;
+
+    protected abstract ByteBuffer view(int page, int off, int len);
+
+    public void map(int addr, int len, int prot) {
+        for (int i = addr >>> 9; i < (addr + len + 0x1ff) >>> 9 && i < perms.length; ++i) {
+            perms[i] = (byte) prot;
+            update(i);
+        }
+    }
+
+    // maps seg at page-aligned addr copy-on-write
+    public void map(int addr, int prot, VAXSegment seg) {
+        map(addr, seg.data.capacity(), prot);
+        for (int k = 0; k < seg.pages; ++k) {
+            int i = (addr >>> 9) + k;
+            if (i < sources.length && !allocated[i]) {
+                sources[i] = seg;
+                offsets[i] = k;
+            }
+        }
+    }
+
+    public int getPerms(int addr) {
+        int i = addr >>> 9;
+        return i < perms.length ? perms[i] : 0;
+    }
+
+    public int getFrames() {
+        int ret = 0;
+        for (boolean a : allocated) {
+            if (a) {
+                ++ret;
+            }
+        }
+        return ret;
+    }
+
+    private void update(int i) {
+        readable[i] = allocated[i] && (perms[i] & R) != 0;
+        writable[i] = allocated[i] && !shared[i] && (perms[i] & W) != 0;
+    }
+
+    // makes page i present, sharing the image when possible
+    private void present(int i) {
+        if (!allocated[i] && sources[i] != null) {
+            if (attach(i, sources[i], offsets[i])) {
+                shared[i] = allocated[i] = true;
+                update(i);
+            } else {
+                frame(i);
+            }
+        }
+    }
+
+    // makes page i a private frame
+    private void frame(int i) {
+        if (!allocated[i]) {
+            alloc(i);
+            VAXSegment seg = sources[i];
+            if (seg != null) {
+                ByteBuffer src = seg.data;
+                int off = offsets[i] << 9;
+                copy(i, src, off, Math.min(512, src.capacity() - off));
+            }
+        } else if (shared[i]) {
+            unshare(i);
+        } else {
+            return;
+        }
+        sources[i] = null;
+        allocated[i] = true;
+        shared[i] = false;
+        update(i);
+    }
+
+    private VAXTrap fault(int addr) {
+        return trap.set(VAXTrap.ACCESS, -1, addr);
+    }
+
+    public int get(int addr, int size) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < readable.length && off <= 512 - size && readable[i]
+                && (size == 1 || size == 2 || size == 4)) {
+            return load(i, off, size);
+        }
+        return getSlow(addr, size);
+    }
+
+    private int getSlow(int addr, int size) throws VAXTrap {
+        if (size != 1 && size != 2 && size != 4) {
+            throw trap.set(VAXTrap.SIZE, -1, size);
+        }
+        int ret = 0;
+        for (int j = size - 1; j >= 0; --j) {
+            int a = addr + j, i = a >>> 9;
+            if (i >= perms.length || (perms[i] & R) == 0) {
+                throw fault(a);
+            }
+            present(i);
+            ret = ret << 8 | (allocated[i] ? load(i, a & 0x1ff, 1) & 0xff : 0);
+        }
+        return ret << (32 - size * 8) >> (32 - size * 8);
+    }
+
+    public int set(int addr, int size, int value) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < writable.length && off <= 512 - size && writable[i]
+                && (size == 1 || size == 2 || size == 4)) {
+            store(i, off, size, value);
+            return value << (32 - size * 8) >> (32 - size * 8);
+        }
+        return setSlow(addr, size, value);
+    }
+
+    private int setSlow(int addr, int size, int value) throws VAXTrap {
+        if (size == 8) {
+            setSlow(addr, 4, value);
+            setSlow(addr + 4, 4, value < 0 ? -1 : 0);
+            return value;
+        } else if (size != 1 && size != 2 && size != 4) {
+            throw trap.set(VAXTrap.SIZE, -1, size);
+        }
+        for (int j = 0; j < size; ++j) {
+            int i = (addr + j) >>> 9;
+            if (i >= perms.length || (perms[i] & W) == 0) {
+                throw fault(addr + j);
+            }
+        }
+        write(addr, size, value);
+        return value << (32 - size * 8) >> (32 - size * 8);
+    }
+
+    // fixed-width forms of get and set, for handlers of a known size
+    public int getByte(int addr) throws VAXTrap {
+        int i = addr >>> 9;
+        if (i < readable.length && readable[i]) {
+            return loadByte(i, addr & 0x1ff);
+        }
+        return getSlow(addr, 1);
+    }
+
+    public int getWord(int addr) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < readable.length && off <= 510 && readable[i]) {
+            return loadShort(i, off);
+        }
+        return getSlow(addr, 2);
+    }
+
+    public int getLong(int addr) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < readable.length && off <= 508 && readable[i]) {
+            return loadInt(i, off);
+        }
+        return getSlow(addr, 4);
+    }
+
+    public int setByte(int addr, int value) throws VAXTrap {
+        int i = addr >>> 9;
+        if (i < writable.length && writable[i]) {
+            storeByte(i, addr & 0x1ff, value);
+            return (byte) value;
+        }
+        return setSlow(addr, 1, value);
+    }
+
+    public int setWord(int addr, int value) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < writable.length && off <= 510 && writable[i]) {
+            storeShort(i, off, value);
+            return (short) value;
+        }
+        return setSlow(addr, 2, value);
+    }
+
+    public int setLong(int addr, int value) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < writable.length && off <= 508 && writable[i]) {
+            storeInt(i, off, value);
+            return value;
+        }
+        return setSlow(addr, 4, value);
+    }
+
+    // bit fields: a little-endian window of len <= 8 bytes at addr in one
+    // access when it stays inside a page; bytes above len are unspecified
+    public long getWindow(int addr, int len) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < readable.length && off <= 504 && readable[i]) {
+            return loadLong(i, off);
+        }
+        long ret = 0;
+        for (int j = 0; j < len; ++j) {
+            ret |= (get(addr + j, 1) & 0xffL) << j * 8;
+        }
+        return ret;
+    }
+
+    // stores exactly the low len bytes of value
+    public void setWindow(int addr, int len, long value) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff;
+        if (i < writable.length && off <= 512 - len && writable[i]) {
+            for (int j = 0, n; j < len; j += n) {
+                n = len - j >= 4 ? 4 : len - j >= 2 ? 2 : 1;
+                store(i, off + j, n, (int) (value >>> j * 8));
+            }
+            return;
+        }
+        for (int j = 0; j < len; ++j) {
+            int k = (addr + j) >>> 9;
+            if (k >= perms.length || (perms[k] & W) == 0) {
+                throw fault(addr + j);
+            }
+        }
+        for (int j = 0; j < len; ++j) {
+            write(addr + j, 1, (int) (value >>> j * 8));
+        }
+    }
+
+    // interlocked instructions: read-modify-write of the aligned longword
+    // at addr with host atomics, as the frame may be reached by the process
+    // on another carrier thread
+
+    private int locked(int addr) throws VAXTrap {
+        int i = addr >>> 9;
+        if (i < writable.length && writable[i]) {
+            return i;
+        }
+        if (i >= perms.length || (perms[i] & W) == 0) {
+            throw fault(addr);
+        }
+        frame(i);
+        return i;
+    }
+
+    public int getAndOr(int addr, int bits) throws VAXTrap {
+        int i = locked(addr), off = addr & 0x1fc, old;
+        do {
+            old = load(i, off, 4);
+        } while (!cas(i, off, old, old | bits));
+        return old;
+    }
+
+    public int getAndAnd(int addr, int bits) throws VAXTrap {
+        int i = locked(addr), off = addr & 0x1fc, old;
+        do {
+            old = load(i, off, 4);
+        } while (!cas(i, off, old, old & bits));
+        return old;
+    }
+
+    public int getAndSet(int addr, int value) throws VAXTrap {
+        int i = locked(addr), off = addr & 0x1fc, old;
+        do {
+            old = load(i, off, 4);
+        } while (!cas(i, off, old, value));
+        return old;
+    }
+
+    // adds to the aligned word at addr and returns its old value
+    public int getAndAddWord(int addr, int delta) throws VAXTrap {
+        int i = locked(addr), off = addr & 0x1fc, sh = (addr & 2) << 3, old;
+        do {
+            old = load(i, off, 4);
+        } while (!cas(i, off, old, old & ~(0xffff << sh) | ((old >> sh) + delta & 0xffff) << sh));
+        return (short) (old >> sh);
+    }
+
+    // hands len bytes at addr to dst page by page, without an intermediate copy
+    public void output(int addr, int len, VAXOutput dst) throws IOException, VAXTrap {
+        for (int i = addr >>> 9, last = (addr + len - 1) >>> 9; len > 0 && i <= last; ++i) {
+            if (i >= perms.length || (perms[i] & R) == 0) {
+                throw fault(Math.max(addr, i << 9));
+            }
+        }
+        while (len > 0) {
+            int i = addr >>> 9, off = addr & 0x1ff, n = Math.min(len, 512 - off);
+            present(i);
+            if (allocated[i]) {
+                output(i, off, n, dst);
+            } else {
+                dst.put(ZERO, 0, n);
+            }
+            addr += n;
+            len -= n;
+        }
+    }
+
+    // buffers over the pages of len bytes at addr for channel I/O;
+    // pages to be written become private frames first
+    public ByteBuffer[] views(int addr, int len, boolean write) throws VAXTrap {
+        if (len <= 0) {
+            return new ByteBuffer[0];
+        }
+        int first = addr >>> 9, last = (addr + len - 1) >>> 9;
+        for (int i = first; i <= last; ++i) {
+            if (i < 0 || i >= perms.length || (perms[i] & (write ? W : R)) == 0) {
+                throw fault(Math.max(addr, i << 9));
+            }
+        }
+        ByteBuffer[] ret = new ByteBuffer[last - first + 1];
+        for (int k = 0; k < ret.length; ++k) {
+            int i = first + k, off = addr & 0x1ff, n = Math.min(len, 512 - off);
+            if (write) {
+                frame(i);
+            } else {
+                present(i);
+            }
+            ret[k] = allocated[i] ? view(i, off, n) : ByteBuffer.wrap(ZERO, 0, n).asReadOnlyBuffer();
+            addr += n;
+            len -= n;
+        }
+        return ret;
+    }
+
+    // bulk access for the string instructions, one page piece at a time
+
+    private static final long ONES = 0x0101010101010101L, HIGHS = 0x8080808080808080L;
+
+    // the rest of the page at addr, at most len bytes, indexed from 0
+    private ByteBuffer chunk(int addr, int len, boolean write) throws VAXTrap {
+        int i = addr >>> 9, off = addr & 0x1ff, n = Math.min(len, 512 - off);
+        if (i >= perms.length || (perms[i] & (write ? W : R)) == 0) {
+            throw fault(addr);
+        }
+        if (write) {
+            frame(i);
+        } else {
+            present(i);
+        }
+        ByteBuffer b = allocated[i] ? view(i, off, n) : ByteBuffer.wrap(ZERO, off, n);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void get(int addr, byte[] dst, int off, int len) throws VAXTrap {
+        while (len > 0) {
+            ByteBuffer p = chunk(addr, len, false);
+            int n = p.remaining();
+            p.get(dst, off, n);
+            addr += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void set(int addr, byte[] src, int off, int len) throws VAXTrap {
+        while (len > 0) {
+            ByteBuffer p = chunk(addr, len, true);
+            int n = p.remaining();
+            p.put(src, off, n);
+            addr += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // moves len bytes as if through a temporary, so overlap does not matter
+    public void move(int dst, int src, int len) throws VAXTrap {
+        if (dst - src > 0 && dst - src < len) {
+            // the pieces go from the end when dst overlaps the tail of src
+            while (len > 0) {
+                int e1 = src + len - 1, e2 = dst + len - 1;
+                int n = Math.min(len, Math.min(e1 & 0x1ff, e2 & 0x1ff) + 1);
+                len -= n;
+                ByteBuffer d = chunk(dst + len, n, true);
+                d.put(chunk(src + len, n, false));
+            }
+            return;
+        }
+        while (len > 0) {
+            int n = Math.min(len, 512 - Math.max(src & 0x1ff, dst & 0x1ff));
+            ByteBuffer d = chunk(dst, n, true);
+            d.put(chunk(src, n, false));
+            src += n;
+            dst += n;
+            len -= n;
+        }
+    }
+
+    public void fill(int dst, int len, byte b) throws VAXTrap {
+        long pattern = (b & 0xffL) * ONES;
+        while (len > 0) {
+            ByteBuffer d = chunk(dst, len, true);
+            int n = d.remaining(), j = 0;
+            if (d.hasArray()) {
+                Arrays.fill(d.array(), d.arrayOffset(), d.arrayOffset() + n, b);
+                j = n;
+            }
+            for (; j + 8 <= n; j += 8) {
+                d.putLong(j, pattern);
+            }
+            for (; j < n; ++j) {
+                d.put(j, b);
+            }
+            dst += n;
+            len -= n;
+        }
+    }
+
+    // index of the first byte where the strings at a and b differ, or -1
+    public int mismatch(int a, int b, int len) throws VAXTrap {
+        for (int done = 0; done < len;) {
+            int n = Math.min(len - done, 512 - Math.max((a + done) & 0x1ff, (b + done) & 0x1ff));
+            int k = chunk(a + done, n, false).mismatch(chunk(b + done, n, false));
+            if (k >= 0) {
+                return done + k;
+            }
+            done += n;
+        }
+        return -1;
+    }
+
+    // index of the first byte that is c, or with equal false is not c, or -1;
+    // eight bytes are tested at once
+    public int locate(int addr, int len, byte c, boolean equal) throws VAXTrap {
+        long pattern = (c & 0xffL) * ONES;
+        for (int done = 0; done < len;) {
+            ByteBuffer p = chunk(addr + done, len - done, false);
+            int n = p.remaining(), j = 0;
+            for (; j + 8 <= n; j += 8) {
+                long x = p.getLong(j) ^ pattern;
+                // the lowest flagged byte of a zero byte test is exact
+                long hit = equal ? (x - ONES) & ~x & HIGHS : x;
+                if (hit != 0) {
+                    return done + j + (Long.numberOfTrailingZeros(hit) >>> 3);
+                }
+            }
+            for (; j < n; ++j) {
+                if ((p.get(j) == c) == equal) {
+                    return done + j;
+                }
+            }
+            done += n;
+        }
+        return -1;
+    }
+
+    // index of the first byte whose table entry has bits of mask,
+    // or with any false has none of them, or -1
+    public int scan(int addr, int len, byte[] table, int mask, boolean any) throws VAXTrap {
+        for (int done = 0; done < len;) {
+            ByteBuffer p = chunk(addr + done, len - done, false);
+            int n = p.remaining();
+            for (int j = 0; j < n; ++j) {
+                if (((table[p.get(j) & 0xff] & mask) != 0) == any) {
+                    return done + j;
+                }
+            }
+            done += n;
+        }
+        return -1;
+    }
+
+    // stores table[src[i]] to dst[i] until a translated byte equals esc,
+    // when esc is not negative, and returns the number of bytes stored
+    public int translate(int dst, int src, int len, byte[] table, int esc) throws VAXTrap {
+        for (int done = 0; done < len;) {
+            int n = Math.min(len - done, 512 - Math.max((src + done) & 0x1ff, (dst + done) & 0x1ff));
+            ByteBuffer d = chunk(dst + done, n, true), s = chunk(src + done, n, false);
+            for (int j = 0; j < n; ++j) {
+                byte b = table[s.get(j) & 0xff];
+                if ((b & 0xff) == esc) {
+                    return done + j;
+                }
+                d.put(j, b);
+            }
+            done += n;
+        }
+        return len;
+    }
+
+    // loader and debugger access: no permission checks, nothing outside reads as 0
+
+    public int read(int addr, int size) {
+        int ret = 0;
+        for (int j = size - 1; j >= 0; --j) {
+            int a = addr + j, i = a >>> 9;
+            ret <<= 8;
+            if (i < allocated.length) {
+                present(i);
+                if (allocated[i]) {
+                    ret |= load(i, a & 0x1ff, 1) & 0xff;
+                }
+            }
+        }
+        return ret << (32 - size * 8) >> (32 - size * 8);
+    }
+
+    public void write(int addr, int size, int value) {
+        for (int j = 0; j < size; ++j) {
+            int a = addr + j;
+            frame(a >>> 9);
+            store(a >>> 9, a & 0x1ff, 1, value >> (j * 8));
+        }
+    }
+
+    public void read(int addr, byte[] dst, int off, int len) {
+        for (int j = 0; j < len; ++j) {
+            dst[off + j] = (byte) read(addr + j, 1);
+        }
+    }
+
+    public void write(int addr, byte[] src, int off, int len) {
+        while (len > 0) {
+            int i = addr >>> 9, o = addr & 0x1ff, n = Math.min(len, 512 - o);
+            frame(i);
+            view(i, o, n).put(src, off, n);
+            addr += n;
+            off += n;
+            len -= n;
+        }
+    }
+}
+
+class VAXHeapMemory extends VAXMemory {
+
+    private static final VarHandle SHORT
+            = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT
+            = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG
+            = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private final byte[][] frames;
+
+    public VAXHeapMemory(int size, VAXTrap trap) {
+        super(size, trap);
+        frames = new byte[this.size >>> 9][];
+    }
+
+    @Override
+    protected void alloc(int page) {
+        frames[page] = new byte[512];
+    }
+
+    @Override
+    protected void copy(int page, ByteBuffer src, int off, int len) {
+        src.get(off, frames[page], 0, len);
+    }
+
+    @Override
+    protected boolean attach(int page, VAXSegment seg, int k) {
+        frames[page] = seg.frame(k);
+        return true;
+    }
+
+    @Override
+    protected void unshare(int page) {
+        frames[page] = frames[page].clone();
+    }
+
+    @Override
+    public VAXMemory fork(VAXTrap trap) {
+        VAXHeapMemory m = new VAXHeapMemory(size, trap);
+        System.arraycopy(frames, 0, m.frames, 0, frames.length);
+        m.share(this);
+        return m;
+    }
+
+    @Override
+    protected void output(int page, int off, int len, VAXOutput dst) throws IOException {
+        dst.put(frames[page], off, len);
+    }
+
+    @Override
+    protected ByteBuffer view(int page, int off, int len) {
+        return ByteBuffer.wrap(frames[page], off, len);
+    }
+
+    @Override
+    protected int loadByte(int page, int off) {
+        return frames[page][off];
+    }
+
+    @Override
+    protected int loadShort(int page, int off) {
+        return (short) SHORT.get(frames[page], off);
+    }
+
+    @Override
+    protected int loadInt(int page, int off) {
+        return (int) INT.get(frames[page], off);
+    }
+
+    @Override
+    protected long loadLong(int page, int off) {
+        return (long) LONG.get(frames[page], off);
+    }
+
+    @Override
+    protected boolean cas(int page, int off, int expect, int value) {
+        return INT.compareAndSet(frames[page], off, expect, value);
+    }
+
+    @Override
+    protected void storeByte(int page, int off, int value) {
+        frames[page][off] = (byte) value;
+    }
+
+    @Override
+    protected void storeShort(int page, int off, int value) {
+        SHORT.set(frames[page], off, (short) value);
+    }
+
+    @Override
+    protected void storeInt(int page, int off, int value) {
+        INT.set(frames[page], off, value);
+    }
+}
+
+class VAXDirectMemory extends VAXMemory {
+
+    // frames are carved out of 64 KB native slabs, so the heap only
+    // holds one slab reference and one offset per allocated page
+    private static final int SLAB = 0x10000;
+    private static final VarHandle INT
+            = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] slabs;
+    private final int[] bases;
+    private ByteBuffer slab;
+    private int used = SLAB;
+
+    public VAXDirectMemory(int size, VAXTrap trap) {
+        super(size, trap);
+        slabs = new ByteBuffer[this.size >>> 9];
+        bases = new int[this.size >>> 9];
+    }
+
+    @Override
+    protected void alloc(int page) {
+        if (used == SLAB) {
+            slab = ByteBuffer.allocateDirect(SLAB).order(ByteOrder.LITTLE_ENDIAN);
+            used = 0;
+        }
+        slabs[page] = slab;
+        bases[page] = used;
+        used += 512;
+    }
+
+    @Override
+    protected void copy(int page, ByteBuffer src, int off, int len) {
+        slabs[page].put(bases[page], src, off, len);
+    }
+
+    @Override
+    protected boolean attach(int page, VAXSegment seg, int k) {
+        ByteBuffer src = seg.data;
+        if (!src.isDirect() || src.order() != ByteOrder.LITTLE_ENDIAN
+                || src.capacity() - (k << 9) < 512) {
+            return false;
+        }
+        slabs[page] = src;
+        bases[page] = k << 9;
+        return true;
+    }
+
+    @Override
+    protected void unshare(int page) {
+        ByteBuffer src = slabs[page];
+        int off = bases[page];
+        alloc(page);
+        slabs[page].put(bases[page], src, off, 512);
+    }
+
+    @Override
+    public VAXMemory fork(VAXTrap trap) {
+        VAXDirectMemory m = new VAXDirectMemory(size, trap);
+        System.arraycopy(slabs, 0, m.slabs, 0, slabs.length);
+        System.arraycopy(bases, 0, m.bases, 0, bases.length);
+        m.share(this);
+        return m;
+    }
+
+    @Override
+    protected void output(int page, int off, int len, VAXOutput dst) throws IOException {
+        dst.put(slabs[page], bases[page] + off, len);
+    }
+
+    @Override
+    protected ByteBuffer view(int page, int off, int len) {
+        return slabs[page].slice(bases[page] + off, len);
+    }
+
+    @Override
+    protected int loadByte(int page, int off) {
+        return slabs[page].get(bases[page] + off);
+    }
+
+    @Override
+    protected int loadShort(int page, int off) {
+        return slabs[page].getShort(bases[page] + off);
+    }
+
+    @Override
+    protected int loadInt(int page, int off) {
+        return slabs[page].getInt(bases[page] + off);
+    }
+
+    @Override
+    protected long loadLong(int page, int off) {
+        return slabs[page].getLong(bases[page] + off);
+    }
+
+    @Override
+    protected boolean cas(int page, int off, int expect, int value) {
+        return INT.compareAndSet(slabs[page], bases[page] + off, expect, value);
+    }
+
+    @Override
+    protected void storeByte(int page, int off, int value) {
+        slabs[page].put(bases[page] + off, (byte) value);
+    }
+
+    @Override
+    protected void storeShort(int page, int off, int value) {
+        slabs[page].putShort(bases[page] + off, (short) value);
+    }
+
+    @Override
+    protected void storeInt(int page, int off, int value) {
+        slabs[page].putInt(bases[page] + off, value);
+    }
+}
+
+class VAXFloat {
+
+    // F, D and G values are handled as longs with the bits in the order the
+    // architecture numbers them, sign, exponent and fraction, F widened to
+    // the D layout; H is a pair of such longs, hi and lo
+    public static final int F = 0, D = 1, G = 2, H = 3;
+    private static final int[] EXP = {8, 8, 11, 15}, BIAS = {128, 128, 1024, 16384};
+    private static final int[] PREC = {24, 56, 53, 113};
+    private static final long HIDDEN = 1L << 61;
+    private static final BigInteger LOW = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final VAXTrap trap;
+    // an unpacked value is sign, mant * 2^exp with mant in [2^61, 2^62),
+    // or mant 0; the H engine keeps its mantissa in wide instead
+    private boolean sign;
+    private int exp;
+    private long mant;
+    private BigInteger wide;
+    // whether the last conversion to an integer lost high bits
+    public boolean overflow;
+    // the integer part from emod
+    public long whole;
+
+    public VAXFloat(VAXTrap trap) {
+        this.trap = trap;
+    }
+
+    // memory holds the 16-bit words in the opposite order
+    public static int swap(int m) {
+        return m << 16 | m >>> 16;
+    }
+
+    public static long swap(long m) {
+        m = m << 32 | m >>> 32;
+        return (m & 0x0000ffff0000ffffL) << 16 | m >>> 16 & 0x0000ffff0000ffffL;
+    }
+
+    // short literals hold 0.5 to 120 as three exponent and three fraction bits
+    public static long literal(int fmt, int lit) {
+        int eb = EXP[fmt];
+        return (long) (BIAS[fmt] + (lit >> 3)) << (63 - eb) | (long) (lit & 7) << (60 - eb);
+    }
+
+    public static int exponent(int fmt, long bits) {
+        int eb = EXP[fmt];
+        return (int) (bits >>> (63 - eb)) & ((1 << eb) - 1);
+    }
+
+    private VAXTrap reserved(long bits) {
+        return trap.set(VAXTrap.RESERVED, -1, (int) (bits >>> 32));
+    }
+
+    private VAXTrap arith(int code) {
+        return trap.set(VAXTrap.ARITH, -1, code);
+    }
+
+    // a zero exponent is zero, or with the sign set a reserved operand
+    public long check(int fmt, long bits) throws VAXTrap {
+        if (bits < 0 && exponent(fmt, bits) == 0) {
+            throw reserved(bits);
+        }
+        return bits;
+    }
+
+    private void unpack(int fmt, long bits) throws VAXTrap {
+        int eb = EXP[fmt], e = exponent(fmt, check(fmt, bits));
+        sign = bits < 0;
+        exp = e - BIAS[fmt] - 62;
+        mant = e == 0 ? 0 : HIDDEN | bits << (eb + 1) >>> 3;
+    }
+
+    // rounds half away from zero, as the VAX does; an underflow gives 0
+    private long pack(int fmt) throws VAXTrap {
+        if (mant == 0) {
+            return 0;
+        }
+        int p = PREC[fmt], eb = EXP[fmt], e = exp + BIAS[fmt] + 62;
+        long m = mant + (1L << (61 - p)) & -(1L << (62 - p));
+        if (m >= 1L << 62) {
+            m >>>= 1;
+            ++e;
+        }
+        if (e >= 1 << eb) {
+            throw arith(VAXTrap.FLTOVF);
+        } else if (e <= 0) {
+            return 0;
+        }
+        return (sign ? Long.MIN_VALUE : 0) | (long) e << (63 - eb) | m << 3 >>> (eb + 1);
+    }
+
+    // F and G convert exactly, D loses its last three fraction bits
+    public double toDouble(int fmt, long bits) throws VAXTrap {
+        int e = exponent(fmt, check(fmt, bits));
+        if (e == 0) {
+            return 0;
+        } else if (fmt != G) {
+            return Double.longBitsToDouble(bits & Long.MIN_VALUE
+                    | (long) (e + 894) << 52 | (bits & 0x7fffffffffffffL) >>> 3);
+        } else if (e > 2) {
+            return Double.longBitsToDouble(bits - (2L << 52));
+        }
+        return Math.scalb(Double.longBitsToDouble(bits & 0x800fffffffffffffL | 1023L << 52), e - 1025);
+    }
+
+    public long fromDouble(int fmt, double x) throws VAXTrap {
+        long bits = Double.doubleToRawLongBits(x), mag = bits & Long.MAX_VALUE;
+        if (fmt == G) {
+            int e = (int) (mag >>> 52) + 2;
+            if (mag < 1L << 52) {
+                // subnormal doubles are normal G values down to 2^-1025
+                int n = Long.numberOfLeadingZeros(mag) - 11;
+                e = 3 - n;
+                mag = mag << n & 0xfffffffffffffL;
+            }
+            if (e >= 2048) {
+                throw arith(VAXTrap.FLTOVF);
+            }
+            return x == 0 || e <= 0 ? 0 : bits & Long.MIN_VALUE | (long) e << 52 | mag & 0xfffffffffffffL;
+        }
+        // F keeps 23 of the 52 fraction bits, D all of them
+        int drop = fmt == F ? 29 : 0;
+        mag = mag + (1L << drop >> 1) & -(1L << drop);
+        int e = (int) (mag >>> 52) - 894;
+        if (e >= 256) {
+            throw arith(VAXTrap.FLTOVF);
+        }
+        return x == 0 || e <= 0 ? 0 : bits & Long.MIN_VALUE | (long) e << 55 | (mag & 0xfffffffffffffL) << 3;
+    }
+
+    public long fromInt(int fmt, int v) throws VAXTrap {
+        return fromDouble(fmt, v);
+    }
+
+    // the integer part of a value, or with round the nearest integer
+    public long toLong(int fmt, long bits, boolean round) throws VAXTrap {
+        unpack(fmt, bits);
+        return integer(round);
+    }
+
+    private long integer(boolean round) {
+        int shift = -exp;
+        long v;
+        overflow = shift <= 0;
+        if (mant == 0 || shift > 62) {
+            v = 0;
+        } else if (shift <= 0) {
+            v = shift > -64 ? mant << -shift : 0;
+        } else {
+            v = (round ? mant + (1L << (shift - 1)) : mant) >>> shift;
+        }
+        return sign ? -v : v;
+    }
+
+    public long convert(int from, int to, long bits) throws VAXTrap {
+        unpack(from, bits);
+        return pack(to);
+    }
+
+    public long negate(int fmt, long bits) throws VAXTrap {
+        return exponent(fmt, check(fmt, bits)) == 0 ? 0 : bits ^ Long.MIN_VALUE;
+    }
+
+    public int compare(int fmt, long a, long b) throws VAXTrap {
+        return Long.compare(key(fmt, a), key(fmt, b));
+    }
+
+    private long key(int fmt, long bits) throws VAXTrap {
+        if (exponent(fmt, check(fmt, bits)) == 0) {
+            return 0;
+        }
+        return bits < 0 ? -(bits & Long.MAX_VALUE) : bits;
+    }
+
+    // G operands in this range keep the results of double arithmetic, and
+    // the error terms that find ties, clear of overflow and subnormals
+    private static boolean inRange(long g) {
+        return exponent(G, g) - 512 >>> 10 == 0;
+    }
+
+    // turns a tie that the double rounded towards zero away from it
+    private static double away(double s, double err) {
+        if (err != 0 && (err < 0) == (s < 0) && Math.abs(err) == Math.ulp(s) * 0.5) {
+            return s + 2 * err;
+        }
+        return s;
+    }
+
+    private boolean fast(double s) {
+        return s == 0 || Math.abs(s) >= 0x1p-1000;
+    }
+
+    public long add(int fmt, long a, long b, boolean negate) throws VAXTrap {
+        if (fmt == F) {
+            // doubles carry more than twice the bits, so rounding twice is exact
+            double x = toDouble(F, a), y = toDouble(F, b);
+            return fromDouble(F, negate ? x - y : x + y);
+        } else if (fmt == G && inRange(a) && inRange(b)) {
+            double x = toDouble(G, a), y = toDouble(G, b);
+            y = negate ? -y : y;
+            double s = x + y, t = s - x;
+            if (fast(s)) {
+                return fromDouble(G, away(s, (x - (s - t)) + (y - t)));
+            }
+        }
+        unpack(fmt, b);
+        boolean sb = sign ^ negate;
+        int eb = exp;
+        long mb = mant;
+        unpack(fmt, a);
+        return sum(fmt, sb, eb, mb);
+    }
+
+    // adds sb, mb * 2^eb to the unpacked value
+    private long sum(int fmt, boolean sb, int eb, long mb) throws VAXTrap {
+        if (mb == 0) {
+            return pack(fmt);
+        } else if (mant == 0 || exp < eb) {
+            boolean ts = sign;
+            sign = sb;
+            sb = ts;
+            int te = exp;
+            exp = eb;
+            eb = te;
+            long tm = mant;
+            mant = mb;
+            mb = tm;
+        }
+        int d = exp - eb;
+        // bits shifted out are kept as a sticky bit at the bottom
+        mb = mb == 0 ? 0 : d > 62 ? 1 : mb >>> d | ((mb & ((1L << d) - 1)) != 0 ? 1 : 0);
+        if (sign == sb) {
+            mant += mb;
+            if (mant >= 1L << 62) {
+                mant = mant >>> 1 | mant & 1;
+                ++exp;
+            }
+        } else {
+            mant -= mb;
+            if (mant < 0) {
+                mant = -mant;
+                sign = sb;
+            } else if (mant == 0) {
+                return 0;
+            }
+            int n = Long.numberOfLeadingZeros(mant) - 2;
+            mant <<= n;
+            exp -= n;
+        }
+        return pack(fmt);
+    }
+
+    public long mul(int fmt, long a, long b) throws VAXTrap {
+        if (fmt == F) {
+            return fromDouble(F, toDouble(F, a) * toDouble(F, b));
+        } else if (fmt == G && inRange(a) && inRange(b)) {
+            double x = toDouble(G, a), y = toDouble(G, b), s = x * y;
+            if (fast(s)) {
+                return fromDouble(G, away(s, Math.fma(x, y, -s)));
+            }
+        }
+        product(fmt, a, b);
+        return pack(fmt);
+    }
+
+    // leaves a * b unpacked, the bits below the 62 kept as a sticky bit;
+    // returns whether there were none
+    private boolean product(int fmt, long a, long b) throws VAXTrap {
+        unpack(fmt, b);
+        boolean sb = sign;
+        int eb = exp;
+        long mb = mant;
+        unpack(fmt, a);
+        if (mant == 0 || mb == 0) {
+            mant = 0;
+            return true;
+        }
+        long hi = Math.multiplyHigh(mant, mb), lo = mant * mb;
+        boolean exact = (lo & (HIDDEN - 1)) == 0;
+        mant = hi << 3 | lo >>> 61 | (exact ? 0 : 1);
+        sign ^= sb;
+        exp += eb + 61;
+        if (mant >= 1L << 62) {
+            exact &= (mant & 1) == 0;
+            mant = mant >>> 1 | mant & 1;
+            ++exp;
+        }
+        return exact;
+    }
+
+    // a * b + c rounded once, as each step of POLY is
+    public long fma(int fmt, long a, long b, long c) throws VAXTrap {
+        if (fmt == F) {
+            // the double result is right unless it landed on an F midpoint
+            double s = Math.fma(toDouble(F, a), toDouble(F, b), toDouble(F, c));
+            if ((Double.doubleToRawLongBits(s) & (1L << 29) - 1) != 1L << 28) {
+                return fromDouble(F, s);
+            }
+        }
+        unpack(fmt, c);
+        boolean sc = sign;
+        int ec = exp;
+        long mc = mant;
+        unpack(fmt, b);
+        boolean sb = sign;
+        int eb = exp;
+        long mb = mant;
+        unpack(fmt, a);
+        int shift = ec - (exp + eb - 2);
+        if (mc == 0 || mant == 0 || mb == 0 || shift > 65) {
+            // the addend is more than twice the product, which then only
+            // counts as a sticky bit below it
+            product(fmt, a, b);
+            return sum(fmt, sc, ec, mc);
+        }
+        // the exact product, scaled by 4 to leave room for a sticky bit, and
+        // the addend aligned to it; bits of the addend shifted out below are
+        // a sticky bit that the zero bits of the product keep odd
+        long hi = Math.multiplyHigh(mant, mb), lo = mant * mb;
+        hi = hi << 2 | lo >>> 62;
+        lo <<= 2;
+        sign ^= sb;
+        exp += eb - 2;
+        long chi = 0, clo;
+        if (shift >= 64) {
+            chi = mc << (shift - 64);
+            clo = 0;
+        } else if (shift > 0) {
+            chi = mc >>> (64 - shift);
+            clo = mc << shift;
+        } else {
+            clo = -shift > 62 ? 1 : mc >>> -shift | ((mc & (1L << -shift) - 1) != 0 ? 1 : 0);
+        }
+        if (sign == sc) {
+            lo += clo;
+            hi += chi + (Long.compareUnsigned(lo, clo) < 0 ? 1 : 0);
+        } else {
+            if (Long.compareUnsigned(hi, chi) < 0 || hi == chi && Long.compareUnsigned(lo, clo) < 0) {
+                long t = hi;
+                hi = chi;
+                chi = t;
+                t = lo;
+                lo = clo;
+                clo = t;
+                sign = sc;
+            }
+            hi -= chi + (Long.compareUnsigned(lo, clo) < 0 ? 1 : 0);
+            lo -= clo;
+            if ((hi | lo) == 0) {
+                return 0;
+            }
+        }
+        int k = (hi != 0 ? 127 - Long.numberOfLeadingZeros(hi) : 63 - Long.numberOfLeadingZeros(lo)) - 61;
+        if (k >= 64) {
+            mant = hi >>> (k - 64) | ((hi & (1L << (k - 64)) - 1 | lo) != 0 ? 1 : 0);
+        } else if (k > 0) {
+            mant = hi << (64 - k) | lo >>> k | ((lo & (1L << k) - 1) != 0 ? 1 : 0);
+        } else {
+            mant = lo << -k;
+        }
+        exp += k;
+        return pack(fmt);
+    }
+
+    public long poly(int fmt, long arg, long[] coef, int n) throws VAXTrap {
+        long ret = check(fmt, coef[0]);
+        check(fmt, arg);
+        for (int i = 1; i < n; ++i) {
+            ret = fma(fmt, ret, arg, coef[i]);
+        }
+        return ret;
+    }
+
+    // the product of mulr extended by ext and muld; returns the fraction
+    // and leaves the integer part in whole
+    public long emod(int fmt, long mulr, int ext, long muld) throws VAXTrap {
+        unpackWide(fmt, muld);
+        BigInteger m = wide;
+        int e = exp;
+        boolean s = sign;
+        unpackWide(fmt, mulr);
+        extend(fmt, ext);
+        multiply(s, e, m);
+        return packWide(fmt);
+    }
+
+    public long[] emodH(long[] mulr, int ext, long[] muld) throws VAXTrap {
+        unpackH(muld);
+        BigInteger m = wide;
+        int e = exp;
+        boolean s = sign;
+        unpackH(mulr);
+        extend(H, ext);
+        multiply(s, e, m);
+        return packH();
+    }
+
+    // F and D take a byte of extension, G and H the high bits of a word
+    private void extend(int fmt, int ext) {
+        int xb = EXP[fmt];
+        if (wide.signum() != 0) {
+            wide = wide.shiftLeft(xb).or(BigInteger.valueOf(
+                    (xb == 8 ? ext : ext >>> (16 - xb)) & ((1 << xb) - 1)));
+            exp -= xb;
+        }
+    }
+
+    private void multiply(boolean s, int e, BigInteger m) {
+        sign ^= s;
+        exp += e;
+        wide = wide.multiply(m);
+        BigInteger i = exp >= 0 ? wide.shiftLeft(exp) : wide.shiftRight(-exp);
+        overflow = i.bitLength() > 31 && !(sign && i.bitLength() == 32 && i.getLowestSetBit() == 31);
+        whole = sign ? -i.longValue() : i.longValue();
+        wide = exp >= 0 ? BigInteger.ZERO : wide.subtract(i.shiftLeft(-exp));
+    }
+
+    public long div(int fmt, long a, long b) throws VAXTrap {
+        if (exponent(fmt, check(fmt, b)) == 0) {
+            throw arith(VAXTrap.FLTDIV);
+        } else if (fmt == F) {
+            return fromDouble(F, toDouble(F, a) / toDouble(F, b));
+        } else if (fmt == G && inRange(a) && inRange(b)) {
+            double x = toDouble(G, a), y = toDouble(G, b), q = x / y;
+            if (fast(q)) {
+                // x - q * y is exact, and a tie leaves exactly half an ulp of y
+                double rem = Math.fma(-q, y, x);
+                if (rem != 0 && (rem < 0 != y < 0) == (q < 0)
+                        && Math.abs(rem) == Math.abs(y) * Math.ulp(q) * 0.5) {
+                    q += Math.copySign(Math.ulp(q), q);
+                }
+                return fromDouble(G, q);
+            }
+        }
+        unpack(fmt, b);
+        boolean sb = sign;
+        int eb = exp;
+        long mb = mant;
+        unpack(fmt, a);
+        if (mant == 0) {
+            return 0;
+        }
+        // the quotient of mant * 2^62 / mb from a double estimate, corrected
+        // once by the 128-bit remainder and then exactly by the low word
+        long q = (long) ((double) mant / mb * 0x1p62), lo = mant << 62;
+        long hi = (mant >>> 2) - Math.multiplyHigh(q, mb) - (Long.compareUnsigned(lo, q * mb) < 0 ? 1 : 0);
+        q += Math.round((hi * 0x1p64 + (double) ((lo - q * mb) >>> 1) * 2) / mb);
+        long rem = lo - q * mb;
+        while (rem < 0) {
+            --q;
+            rem += mb;
+        }
+        while (rem >= mb) {
+            ++q;
+            rem -= mb;
+        }
+        mant = q | (rem != 0 ? 1 : 0);
+        sign ^= sb;
+        exp -= eb + 62;
+        if (mant >= 1L << 62) {
+            mant = mant >>> 1 | mant & 1;
+            ++exp;
+        }
+        return pack(fmt);
+    }
+
+    // H works on exact BigInteger mantissas that are rounded once at the end
+
+    private void unpackH(long[] h) throws VAXTrap {
+        long hi = h[0];
+        int e = (int) (hi >>> 48) & 0x7fff;
+        if (hi < 0 && e == 0) {
+            throw reserved(hi);
+        }
+        sign = hi < 0;
+        exp = e - BIAS[H] - 113;
+        wide = e == 0 ? BigInteger.ZERO
+                : BigInteger.valueOf(hi & 0xffffffffffffL | 1L << 48).shiftLeft(64)
+                        .or(BigInteger.valueOf(h[1]).and(LOW));
+    }
+
+    private void unpackWide(int fmt, long bits) throws VAXTrap {
+        if (fmt == H) {
+            throw new IllegalArgumentException();
+        }
+        unpack(fmt, bits);
+        wide = BigInteger.valueOf(mant >>> (62 - PREC[fmt]));
+        exp += 62 - PREC[fmt];
+    }
+
+    // rounds wide to p bits half away from zero
+    private void round(int p) {
+        int n = wide.bitLength() - p;
+        if (n > 0) {
+            wide = wide.add(BigInteger.ONE.shiftLeft(n - 1)).shiftRight(n);
+            exp += n;
+            if (wide.bitLength() > p) {
+                wide = wide.shiftRight(1);
+                ++exp;
+            }
+        }
+    }
+
+    private long[] packH() throws VAXTrap {
+        if (wide.signum() == 0) {
+            return new long[2];
+        }
+        round(PREC[H]);
+        int e = exp + wide.bitLength() + BIAS[H];
+        if (e >= 1 << 15) {
+            throw arith(VAXTrap.FLTOVF);
+        } else if (e <= 0) {
+            return new long[2];
+        }
+        BigInteger m = wide.shiftLeft(PREC[H] - wide.bitLength());
+        return new long[]{(sign ? Long.MIN_VALUE : 0) | (long) e << 48
+            | m.shiftRight(64).longValue() & 0xffffffffffffL, m.longValue()};
+    }
+
+    private long packWide(int fmt) throws VAXTrap {
+        if (wide.signum() == 0) {
+            return 0;
+        }
+        round(PREC[fmt]);
+        int n = 62 - wide.bitLength();
+        mant = wide.longValue() << n;
+        exp -= n;
+        return pack(fmt);
+    }
+
+    public long[] toH(int fmt, long bits) throws VAXTrap {
+        unpackWide(fmt, bits);
+        return packH();
+    }
+
+    public long fromH(int fmt, long[] h) throws VAXTrap {
+        unpackH(h);
+        return packWide(fmt);
+    }
+
+    public long[] intToH(int v) throws VAXTrap {
+        sign = v < 0;
+        exp = 0;
+        wide = BigInteger.valueOf(v).abs();
+        return packH();
+    }
+
+    public long hToLong(long[] h, boolean round) throws VAXTrap {
+        unpackH(h);
+        BigInteger v = exp >= 0 ? wide.shiftLeft(exp)
+                : round ? wide.shiftRight(-exp - 1).add(BigInteger.ONE).shiftRight(1)
+                : wide.shiftRight(-exp);
+        overflow = v.bitLength() > 62;
+        return sign ? -v.longValue() : v.longValue();
+    }
+
+    public long[] addH(long[] a, long[] b, boolean negate) throws VAXTrap {
+        unpackH(b);
+        boolean sb = sign ^ negate;
+        int eb = exp;
+        BigInteger mb = wide;
+        unpackH(a);
+        return sumH(sb, eb, mb);
+    }
+
+    private long[] sumH(boolean sb, int eb, BigInteger mb) throws VAXTrap {
+        if (mb.signum() == 0) {
+            return packH();
+        } else if (wide.signum() == 0) {
+            sign = sb;
+            exp = eb;
+            wide = mb;
+            return packH();
+        }
+        int e = Math.min(exp, eb);
+        BigInteger a = wide.shiftLeft(exp - e), b = mb.shiftLeft(eb - e);
+        wide = sign == sb ? a.add(b) : a.subtract(b);
+        exp = e;
+        if (wide.signum() < 0) {
+            wide = wide.negate();
+            sign = sb;
+        }
+        return packH();
+    }
+
+    public long[] polyH(long[] arg, long[][] coef, int n) throws VAXTrap {
+        long[] ret = checkH(coef[0]);
+        unpackH(arg);
+        BigInteger ma = wide;
+        int ea = exp;
+        boolean sa = sign;
+        for (int i = 1; i < n; ++i) {
+            unpackH(coef[i]);
+            boolean sc = sign;
+            int ec = exp;
+            BigInteger mc = wide;
+            unpackH(ret);
+            sign ^= sa;
+            exp += ea;
+            wide = wide.multiply(ma);
+            ret = sumH(sc, ec, mc);
+        }
+        return ret;
+    }
+
+    public long[] mulH(long[] a, long[] b) throws VAXTrap {
+        unpackH(b);
+        boolean sb = sign;
+        int eb = exp;
+        BigInteger mb = wide;
+        unpackH(a);
+        sign ^= sb;
+        exp += eb;
+        wide = wide.multiply(mb);
+        return packH();
+    }
+
+    public long[] divH(long[] a, long[] b) throws VAXTrap {
+        unpackH(b);
+        boolean sb = sign;
+        int eb = exp;
+        BigInteger mb = wide;
+        if (mb.signum() == 0) {
+            throw arith(VAXTrap.FLTDIV);
+        }
+        unpackH(a);
+        // two more quotient bits than kept, and a sticky bit for the rest
+        int k = PREC[H] + 2;
+        BigInteger[] qr = wide.shiftLeft(k).divideAndRemainder(mb);
+        wide = qr[0].shiftLeft(1).or(qr[1].signum() != 0 ? BigInteger.ONE : BigInteger.ZERO);
+        sign ^= sb;
+        exp -= eb + k + 1;
+        return packH();
+    }
+
+    public long[] checkH(long[] h) throws VAXTrap {
+        if (h[0] < 0 && (h[0] & 0x7fff000000000000L) == 0) {
+            throw reserved(h[0]);
+        }
+        return h;
+    }
+
+    public int compareH(long[] a, long[] b) throws VAXTrap {
+        int sa = signumH(checkH(a)), sb = signumH(checkH(b));
+        if (sa != sb || sa == 0) {
+            return Integer.compare(sa, sb);
+        }
+        int c = Long.compare(a[0] & Long.MAX_VALUE, b[0] & Long.MAX_VALUE);
+        if (c == 0) {
+            c = Long.compareUnsigned(a[1], b[1]);
+        }
+        return sa < 0 ? -c : c;
+    }
+
+    public static int signumH(long[] h) {
+        return (h[0] & 0x7fff000000000000L) == 0 ? 0 : h[0] < 0 ? -1 : 1;
+    }
+}
+
+class VAXDecimal {
+
+    // packed decimal strings hold up to 31 digits in len / 2 + 1 bytes, two
+    // digits a byte and the sign in the low nibble of the last one;
+    // fields are converted whole, through two longs of 18 digits
+    public static final int DIGITS = 31;
+    private static final long E18 = 1_000_000_000_000_000_000L;
+    private static final BigInteger BIG_E18 = BigInteger.valueOf(E18);
+    private static final BigInteger[] POW10 = new BigInteger[DIGITS + 1];
+    private static final byte[] PAIRS = new byte[100];
+
+    static {
+        POW10[0] = BigInteger.ONE;
+        for (int i = 1; i < POW10.length; ++i) {
+            POW10[i] = POW10[i - 1].multiply(BigInteger.TEN);
+        }
+        for (int i = 0; i < PAIRS.length; ++i) {
+            PAIRS[i] = (byte) (i / 10 << 4 | i % 10);
+        }
+    }
+
+    private final VAXTrap trap;
+    private final byte[] buf = new byte[DIGITS + 1];
+    // digits of the value being stored: the last, then 18 and 13 more
+    private int d0;
+    private long lo, hi;
+    // whether the last store dropped digits
+    public boolean overflow;
+
+    public VAXDecimal(VAXTrap trap) {
+        this.trap = trap;
+    }
+
+    public static BigInteger pow10(int n) {
+        return n < POW10.length ? POW10[n] : BigInteger.TEN.pow(n);
+    }
+
+    private VAXTrap reserved(int addr) {
+        return trap.set(VAXTrap.RESERVED, -1, addr);
+    }
+
+    private static BigInteger value(long hi, long lo, int d) {
+        if (hi == 0 && lo < Long.MAX_VALUE / 10) {
+            return BigInteger.valueOf(lo * 10 + d);
+        }
+        return BigInteger.valueOf(hi).multiply(BIG_E18).add(BigInteger.valueOf(lo))
+                .multiply(BigInteger.TEN).add(BigInteger.valueOf(d));
+    }
+
+    public BigInteger load(VAXMemory mem, int len, int addr) throws VAXTrap {
+        int n = len / 2 + 1;
+        mem.get(addr, buf, 0, n);
+        long hi = 0, lo = 0;
+        for (int i = 0, split = n - 10; i < n - 1; ++i) {
+            // an even length leaves the first high nibble unused
+            int b = buf[i] & (i == 0 && (len & 1) == 0 ? 0x0f : 0xff);
+            if (b >> 4 > 9 || (b & 15) > 9) {
+                throw reserved(addr + i);
+            }
+            int pair = (b >> 4) * 10 + (b & 15);
+            if (i < split) {
+                hi = hi * 100 + pair;
+            } else {
+                lo = lo * 100 + pair;
+            }
+        }
+        int last = buf[n - 1] & (len == 0 ? 0x0f : 0xff), sign = last & 15;
+        if (last >> 4 > 9 || sign < 10) {
+            throw reserved(addr + n - 1);
+        }
+        BigInteger v = value(hi, lo, last >> 4);
+        return sign == 0xb || sign == 0xd ? v.negate() : v;
+    }
+
+    // drops the digits beyond len and splits the rest; returns the value kept
+    private BigInteger split(int len, BigInteger v) {
+        BigInteger mag = v.abs();
+        overflow = mag.compareTo(POW10[len]) >= 0;
+        if (overflow) {
+            mag = mag.mod(POW10[len]);
+        }
+        if (mag.bitLength() < 63) {
+            long m = mag.longValue();
+            d0 = (int) (m % 10);
+            hi = m / 10 / E18;
+            lo = m / 10 % E18;
+        } else {
+            BigInteger[] qr = mag.divideAndRemainder(BigInteger.TEN);
+            d0 = qr[1].intValue();
+            qr = qr[0].divideAndRemainder(BIG_E18);
+            hi = qr[0].longValue();
+            lo = qr[1].longValue();
+        }
+        return v.signum() < 0 ? mag.negate() : mag;
+    }
+
+    // stores v with the preferred signs 12 and 13; a negative zero is only
+    // left by an overflow, and the value in the field is returned
+    public BigInteger store(VAXMemory mem, int len, int addr, BigInteger v) throws VAXTrap {
+        int n = len / 2 + 1;
+        BigInteger ret = split(len, v);
+        boolean minus = ret.signum() < 0 || overflow && v.signum() < 0;
+        buf[n - 1] = (byte) (d0 << 4 | (minus ? 13 : 12));
+        long m = lo;
+        for (int i = n - 2, k = 0; i >= 0; --i, ++k) {
+            if (k == 9) {
+                m = hi;
+            }
+            buf[i] = PAIRS[(int) (m % 100)];
+            m /= 100;
+        }
+        mem.set(addr, buf, 0, n);
+        return ret;
+    }
+
+    // trailing numeric strings are ASCII digits whose last one is
+    // translated together with the sign through a 256-byte table
+
+    public BigInteger loadTrailing(VAXMemory mem, int len, int addr, int table) throws VAXTrap {
+        if (len == 0) {
+            return BigInteger.ZERO;
+        }
+        mem.get(addr, buf, 0, len);
+        long hi = 0, lo = 0;
+        for (int i = 0, split = len - 19; i < len - 1; ++i) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) {
+                throw reserved(addr + i);
+            }
+            if (i < split) {
+                hi = hi * 10 + d;
+            } else {
+                lo = lo * 10 + d;
+            }
+        }
+        int last = mem.get(table + (buf[len - 1] & 0xff), 1) & 0xff, sign = last & 15;
+        if (last >> 4 > 9 || sign < 10) {
+            throw reserved(addr + len - 1);
+        }
+        BigInteger v = value(hi, lo, last >> 4);
+        return sign == 0xb || sign == 0xd ? v.negate() : v;
+    }
+
+    public BigInteger storeTrailing(VAXMemory mem, int len, int addr, int table, BigInteger v) throws VAXTrap {
+        BigInteger ret = split(len, v);
+        if (len == 0) {
+            return ret;
+        }
+        boolean minus = ret.signum() < 0 || overflow && v.signum() < 0;
+        buf[len - 1] = (byte) mem.get(table + (d0 << 4 | (minus ? 13 : 12)), 1);
+        long m = lo;
+        for (int i = len - 2, k = 0; i >= 0; --i, ++k) {
+            if (k == 18) {
+                m = hi;
+            }
+            buf[i] = (byte) ('0' + m % 10);
+            m /= 10;
+        }
+        mem.set(addr, buf, 0, len);
+        return ret;
+    }
+}
+
+class VAXScheduler {
+
+    public static final int QUANTUM = 10000;
+    private static VAXScheduler shared;
+    // the runnable process that has had the least weighted time goes first
+    private final PriorityQueue<VAX> runq = new PriorityQueue<>(
+            (a, b) -> Long.compare(a.getVruntime(), b.getVruntime()));
+    private long floor;
+
+    private VAXScheduler(int carriers) {
+        for (int i = 0; i < carriers; ++i) {
+            Thread t = new Thread(this::carrier, "vax-carrier-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public static synchronized VAXScheduler get() {
+        if (shared == null) {
+            shared = new VAXScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    public synchronized long floor() {
+        return floor;
+    }
+
+    public synchronized void ready(VAX p) {
+        runq.add(p);
+        notify();
+    }
+
+    private void carrier() {
+        for (;;) {
+            VAX p;
+            synchronized (this) {
+                while (runq.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                p = runq.poll();
+                floor = p.getVruntime();
+            }
+            p.slice(this, QUANTUM);
+        }
+    }
+}
+
+class VAXKernel {
+
+    // guest processes of one machine share a kernel;
+    // its monitor also guards their parent and child links
+    private int lastPid;
+    // the forked processes still alive share the step budget of the
+    // top-level one and are killed once it runs out or that process ends
+    private final ArrayList<VAX> procs = new ArrayList<>();
+    private long budget = Long.MAX_VALUE;
+    private boolean killed;
+
+    public synchronized int newPid() {
+        return ++lastPid;
+    }
+
+    public synchronized void add(VAX p) {
+        procs.add(p);
+    }
+
+    public synchronized void remove(VAX p) {
+        procs.remove(p);
+    }
+
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    // takes up to n steps from the budget before they run, so the
+    // processes together never pass it; the unused part is refunded
+    public synchronized long reserve(long n) {
+        long ret = Math.min(n, budget);
+        if (budget != Long.MAX_VALUE) {
+            budget -= ret;
+        }
+        return ret;
+    }
+
+    public synchronized void refund(long n) {
+        if (budget != Long.MAX_VALUE) {
+            budget += n;
+        }
+    }
+
+    // the steps the next slice of a forked process may take,
+    // 0 when the tree has to stop
+    public synchronized long quantum(long n) {
+        return killed ? 0 : reserve(n);
+    }
+
+    // marks the tree killed and returns the processes to wake for it
+    public synchronized ArrayList<VAX> kill() {
+        killed = true;
+        return new ArrayList<>(procs);
+    }
+}
+
+class VAX {
+
+    public static final int AP = 12, FP = 13, SP = 14, PC = 15;
+    public static final int MEMORY = 0x40000, STACK = 0x10000;
+    private final VAXTrap trap = new VAXTrap();
+    private final VAXExit exit = new VAXExit();
+    private final VAXDecimal dec = new VAXDecimal(trap);
+    private final VAXFloat fp = new VAXFloat(trap);
+    // the coefficient table of poly
+    private final byte[] coefs = new byte[32 * 16];
+    private VAXMemory mem;
+    private final int size;
+    private final boolean direct;
+    private InputStream in = System.in;
+    private PrintStream out = System.out, err = System.err;
+    private VAXConsole stdin = new VAXConsole(), stdout = new VAXConsole(), stderr = new VAXConsole();
+    private final VAXFile[] files = {stdin, stdout, stderr, null, null, null, null, null, null, null,
+        null, null, null, null, null, null, null, null, null, null};
+    private Path root = Paths.get("").toAbsolutePath(), cwd = root;
+    private int umask = 022;
+    private final VAXKernel kernel;
+    private final int pid;
+    private final ArrayList<VAX> children = new ArrayList<>();
+    private VAX parent;
+    private int status; // wait status once the process has terminated
+    private boolean zombie;
+    // forked processes run in quanta on the scheduler's carriers
+    private static final int RUNNING = 0, PARKING = 1, PARKED = 2;
+    private boolean scheduled;
+    private int state, nice;
+    // bytes of an interrupted pipe write already done before the syscall reruns
+    private int partial;
+    // the translation table of scanc, spanc and movtc
+    private final byte[] table = new byte[256];
+    private long vruntime;
+    private final int[] r = new int[16];
+    // condition codes are evaluated lazily from the last operation:
+    // N and Z from ccd, V and C by cc from ccd, ccs1 and ccs2
+    private static final int CC_FLAGS = 0, CC_ADD = 1, CC_SUB = 2, CC_CMP = 3;
+    private static final int CC_INC = 4, CC_DEC = 5, CC_MNEG = 6, CC_CVT = 7;
+    private static final int CC_TST = 8, CC_CASE = 9;
+    // the kinds below leave C unchanged
+    private static final int CC_LOGIC = 10, CC_SOB = 11, CC_ACB = 12, CC_AOB = 13;
+    private int cc, ccd, ccs1, ccs2;
+    private boolean n, z, v, c;
+    private AOut aout;
+    private final VAXAsm asm = new VAXAsm();
+    private VAXDisasm dis;
+    private int[] callStack = new int[64];
+    private int callDepth;
+    private VAXInsn[][] icache;
+    private VAXBlock[][] bcache;
+    private VAXInsn insn;
+    private int mode, opr, dpc, blockGen, jit;
+    private long steps, limit = Long.MAX_VALUE;
+    private boolean started, exited, blocks;
+
+    public VAX() {
+        setStdio(in, out, err);
+        kernel = new VAXKernel();
+        pid = kernel.newPid();
+        size = MEMORY;
+        direct = false;
+        aout = null;
+        mem = new VAXHeapMemory(MEMORY, trap);
+        mem.map(0, mem.size, VAXMemory.R | VAXMemory.W | VAXMemory.X);
+        icache = new VAXInsn[mem.size >>> 9][];
+        bcache = new VAXBlock[mem.size >>> 9][];
+        mode = 1;
+        r[SP] = mem.size - 4;
+        dis = new VAXDisasm(mem, null, r);
+        dis.setMode(4);
+    }
+
+    public VAX(AOut aout, String[] args) {
+        this(aout, args, MEMORY);
+    }
+
+    public VAX(AOut aout, String[] args, int size) {
+        this(aout, args, size, false);
+    }
+
+    public VAX(AOut aout, String[] args, int size, boolean direct) {
+        setStdio(in, out, err);
+        kernel = new VAXKernel();
+        pid = kernel.newPid();
+        this.size = size;
+        this.direct = direct;
+        load(aout, args);
+    }
+
+    // a child process: the same state with the address space copy-on-write
+    private VAX(VAX p) {
+        kernel = p.kernel;
+        pid = kernel.newPid();
+        parent = p;
+        scheduled = true;
+        nice = p.nice;
+        size = p.size;
+        direct = p.direct;
+        in = p.in;
+        out = p.out;
+        err = p.err;
+        stdin = p.stdin;
+        stdout = p.stdout;
+        stderr = p.stderr;
+        for (int i = 0; i < files.length; ++i) {
+            files[i] = p.files[i];
+            if (files[i] != null) {
+                files[i].retain();
+            }
+        }
+        root = p.root;
+        cwd = p.cwd;
+        umask = p.umask;
+        System.arraycopy(p.r, 0, r, 0, r.length);
+        cc = p.cc;
+        ccd = p.ccd;
+        ccs1 = p.ccs1;
+        ccs2 = p.ccs2;
+        n = p.n;
+        z = p.z;
+        v = p.v;
+        c = p.c;
+        aout = p.aout;
+        mem = p.mem.fork(trap);
+        icache = new VAXInsn[mem.size >>> 9][];
+        bcache = new VAXBlock[mem.size >>> 9][];
+        dis = new VAXDisasm(mem, aout, r);
+        callStack = p.callStack.clone();
+        callDepth = p.callDepth;
+        mode = p.mode;
+        jit = p.jit;
+        blocks = p.blocks;
+        started = true;
+    }
+
+    private void load(AOut aout, String[] args) {
+        this.aout = aout;
+        int dstart = (aout.a_text + 0x1ff) & ~0x1ff;
+        int dend = (dstart + aout.a_data + aout.a_bss + 0x1ff) & ~0x1ff;
+        // grow the address space when the image and a minimal stack do not fit
+        mem = VAXMemory.create(Math.max(size, dend + STACK), trap, direct);
+        icache = new VAXInsn[mem.size >>> 9][];
+        bcache = new VAXBlock[mem.size >>> 9][];
+        if (aout.a_magic == 0x108) {
+            mem.map(0, VAXMemory.R | VAXMemory.X, aout.textSeg);
+        } else {
+            mem.map(0, VAXMemory.R | VAXMemory.W | VAXMemory.X, aout.textSeg);
+        }
+        // data, bss, then heap and stack up to the top of the address space
+        mem.map(dstart, mem.size - dstart, VAXMemory.R | VAXMemory.W);
+        if (aout.dataSeg != null) {
+            mem.map(dstart, VAXMemory.R | VAXMemory.W, aout.dataSeg);
+        }
+        r[PC] = aout.a_entry;
+        dis = new VAXDisasm(mem, aout, r);
+        dis.setMode(mode);
+        setArgs(args);
+    }
+
+    public VAXMemory getMemory() {
+        return mem;
+    }
+
+    public void setStdio(InputStream in, PrintStream out, PrintStream err) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+        stdin.setInput(in);
+        stdout.out = new VAXOutput(out);
+        stderr.out = new VAXOutput(err);
+        stderr.sync = true;
+    }
+
+    // guest paths resolve inside dir, which acts as the root directory
+    public void setRoot(String dir) {
+        cwd = root = Paths.get(dir).toAbsolutePath().normalize();
+    }
+
+    public void flush() throws IOException {
+        stdout.flush();
+        stderr.flush();
+    }
+
+    private void setArgs(String[] args) {
+        int s = mem.size;
+        byte[][] bargs = new byte[args.length][];
+        for (int i = 0; i < args.length; ++i) {
+            bargs[i] = args[i].getBytes(StandardCharsets.US_ASCII);
+            s -= bargs[i].length + 1;
+        }
+        s &= ~3;
+        mem.write(s - 8, 4, 0);
+        mem.write(s - 4, 4, 0);
+        int argv = s - (args.length + 2) * 4;
+        r[SP] = argv - 4;
+        mem.write(r[SP], 4, args.length); // argc
+        for (byte[] barg : bargs) {
+            mem.write(argv, 4, s);
+            argv += 4;
+            mem.write(s, barg, 0, barg.length);
+            s += barg.length + 1;
+            mem.write(s - 1, 1, 0);
+        }
+    }
+
+    public void setNZVC(boolean n, boolean z, boolean v, boolean c) {
+        cc = CC_FLAGS;
+        this.n = n;
+        this.z = z;
+        this.v = v;
+        this.c = c;
+    }
+
+    private void flags(int cc, int d, int s1, int s2) {
+        if (cc >= CC_LOGIC) {
+            c = c();
+        }
+        this.cc = cc;
+        ccd = d;
+        ccs1 = s1;
+        ccs2 = s2;
+    }
+
+    public boolean n() {
+        return cc == CC_FLAGS ? n : ccd < 0;
+    }
+
+    public boolean z() {
+        return cc == CC_FLAGS ? z : ccd == 0;
+    }
+
+    public boolean v() {
+        switch (cc) {
+            case CC_FLAGS:
+                return v;
+            case CC_ADD:
+            case CC_ACB:
+                return (~(ccs1 ^ ccs2) & (ccs2 ^ ccd)) < 0;
+            case CC_SUB:
+                return ((ccs1 ^ ccs2) & (ccs2 ^ ccd)) < 0;
+            case CC_CMP:
+                return ((ccs1 ^ ccs2) & (ccs1 ^ ccd)) < 0;
+            case CC_INC:
+            case CC_AOB:
+                return (~ccs1 & ccd) < 0;
+            case CC_DEC:
+            case CC_SOB:
+                return (ccs1 & ~ccd) < 0;
+            case CC_MNEG:
+                return ccs1 == ccd;
+            case CC_CVT:
+                return ccs1 != ccd;
+        }
+        return false;
+    }
+
+    public boolean c() {
+        switch (cc) {
+            case CC_ADD:
+                return Integer.compareUnsigned(ccs2, ccd) > 0;
+            case CC_SUB:
+            case CC_CASE:
+                return Integer.compareUnsigned(ccs2, ccd) < 0;
+            case CC_CMP:
+                return Integer.compareUnsigned(ccs1, ccd) < 0;
+            case CC_INC:
+                return ccd == 0;
+            case CC_DEC:
+                return ccs1 == 0;
+            case CC_MNEG:
+                return ccd != 0;
+            case CC_CVT:
+            case CC_TST:
+                return false;
+        }
+        return c;
+    }
+
+    public int getRegister(int rn) {
+        return r[rn];
+    }
+
+    public int getNZVC() {
+        return (n() ? 8 : 0) | (z() ? 4 : 0) | (v() ? 2 : 0) | (c() ? 1 : 0);
+    }
+
+    public void setJit(int threshold) {
+        jit = threshold;
+    }
+
+    public void setLimit(long limit) {
+        this.limit = limit;
+        if (!scheduled) {
+            kernel.setBudget(limit == Long.MAX_VALUE ? limit : Math.max(limit - steps, 0));
+        }
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public boolean isExited() {
+        return exited;
+    }
+
+    public void fault(int pc) throws Exception {
+        insn = decode(pc);
+        r[PC] = insn.next;
+    }
+
+    public int fetch() {
+        return mem.read(dpc++, 1) & 0xff;
+    }
+
+    public int fetch(int size) throws Exception {
+        int pc = dpc;
+        dpc += size;
+        return get(pc, size);
+    }
+
+    public int get(int addr, int size) throws Exception {
+        return mem.get(addr, size);
+    }
+
+    public int set(int addr, int size, int value) throws Exception {
+        touch(addr, size);
+        return mem.set(addr, size, value);
+    }
+
+    // drops decoded code before a small store that may land in it;
+    // the store spans at most the pages of its first and last byte
+    private void touch(int addr, int len) {
+        int i = addr >>> 9, j = (addr + len - 1) >>> 9;
+        if (i < icache.length && icache[i] != null || j < icache.length && icache[j] != null) {
+            invalidate(addr, len);
+        }
+    }
+
+    public String getString(int addr, int length) {
+        byte[] bytes = new byte[length];
+        mem.read(addr, bytes, 0, length);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    public Exception error(String format, Object... args) {
+        return new Exception(String.format(format, args));
+    }
+
+    public void invalidate(int addr, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int first = addr >>> 9;
+        int last = Math.min((addr + length - 1) >>> 9, icache.length - 1);
+        boolean hit = false;
+        for (int i = first; i <= last; ++i) {
+            hit |= icache[i] != null;
+        }
+        if (!hit) {
+            return;
+        }
+        for (int i = Math.max(first - 1, 0); i <= last; ++i) {
+            icache[i] = null;
+        }
+        // blocks may span pages, so drop all of them
+        Arrays.fill(bcache, null);
+        ++blockGen;
+    }
+
+    public VAXInsn decode(int pc) throws Exception {
+        VAXInsn[] page = (pc >>> 9) < icache.length ? icache[pc >>> 9] : null;
+        if (page == null) {
+            if ((mem.getPerms(pc) & VAXMemory.X) == 0) {
+                throw trap.set(VAXTrap.ACCESS, pc, pc);
+            }
+            page = icache[pc >>> 9] = new VAXInsn[512];
+        }
+        VAXInsn ret = page[pc & 511];
+        if (ret != null) {
+            return ret;
+        }
+        dpc = pc;
+        int op = fetch();
+        VAXOp vop = VAXOp.table[op];
+        if (vop == null) {
+            int op2 = op << 8 | (mem.read(dpc, 1) & 0xff);
+            if ((vop = VAXOp.table[op2]) == null) {
+                throw trap.set(VAXTrap.OPCODE, pc, op);
+            }
+            op = op2;
+            ++dpc;
+        }
+        VAXOperand[] oprs = new VAXOperand[vop.oprs.length];
+        for (int i = 0; i < oprs.length; ++i) {
+            oprs[i] = decodeOperand(VAXType.table[vop.oprs[i]]);
+        }
+        ret = page[pc & 511] = new VAXInsn(pc, dpc, op, oprs);
+        // keep following pages watched when the instruction crosses them
+        for (int i = (pc >>> 9) + 1; i <= (dpc - 1) >>> 9; ++i) {
+            if ((mem.getPerms(i << 9) & VAXMemory.X) == 0) {
+                page[pc & 511] = null;
+                throw trap.set(VAXTrap.ACCESS, pc, i << 9);
+            }
+            if (icache[i] == null) {
+                icache[i] = new VAXInsn[512];
+            }
+        }
+        return ret;
+    }
+
+    public VAXBlock block(int pc) throws Exception {
+        VAXBlock[] page = (pc >>> 9) < bcache.length ? bcache[pc >>> 9] : null;
+        if (page == null) {
+            if ((mem.getPerms(pc) & VAXMemory.X) == 0) {
+                throw trap.set(VAXTrap.ACCESS, pc, pc);
+            }
+            page = bcache[pc >>> 9] = new VAXBlock[512];
+        }
+        VAXBlock ret = page[pc & 511];
+        if (ret != null) {
+            return ret;
+        }
+        ArrayList<VAXInsn> insns = new ArrayList<>();
+        VAXInsn i = decode(pc);
+        insns.add(i);
+        while (!VAXBlock.isEnd(i)) {
+            try {
+                i = decode(i.next);
+            } catch (Exception ex) {
+                break; // reported when it is reached
+            }
+            insns.add(i);
+        }
+        return page[pc & 511] = new VAXBlock(
+                insns.toArray(new VAXInsn[insns.size()]), blockGen);
+    }
+
+    private VAXBlock follow(VAXBlock b, int pc) throws Exception {
+        if (b.gen == blockGen) {
+            if (b.next != null && b.next.pc == pc) {
+                return b.next;
+            } else if (b.jump != null && b.jump.pc == pc) {
+                return b.jump;
+            }
+        }
+        VAXBlock ret = block(pc);
+        if (b.gen == blockGen) {
+            if (pc == b.end) {
+                b.next = ret;
+            } else {
+                b.jump = ret;
+            }
+        }
+        return ret;
+    }
+
+    private VAXOperand decodeOperand(VAXType t) throws Exception {
+        if (t == VAXType.RELB || t == VAXType.RELW) {
+            return new VAXOperand(0, VAXOperand.BRANCH, PC, fetch(t.size));
+        }
+        int pc = dpc;
+        int b = fetch(), adm = b >> 4, rn = b & 15;
+        switch (adm) {
+            case 0:
+            case 1:
+            case 2:
+            case 3:
+                return new VAXOperand(b, VAXOperand.LIT, 0, b);
+            case 4: { // [r]
+                VAXOperand base = decodeOperand(t);
+                if (!base.isAddress() || base.index >= 0) {
+                    throw trap.set(VAXTrap.ADDRMODE, pc, b);
+                }
+                return base.indexed(b, rn);
+            }
+            case 5: // r
+                if (rn == PC) {
+                    return new VAXOperand(b, VAXOperand.LIT, 0, dpc);
+                }
+                return new VAXOperand(b, VAXOperand.REG, rn, 0);
+            case 6: // (r)
+                if (rn == PC) {
+                    return new VAXOperand(b, VAXOperand.ABS, 0, dpc);
+                }
+                return new VAXOperand(b, adm, rn, 0);
+            case 7: // -(r)
+                return new VAXOperand(b, adm, rn, 0);
+            case 8: // (r)+
+                if (rn == PC) { // immediate
+                    int ad = dpc;
+                    dpc += t.size;
+                    if (t.size > 4) {
+                        return new VAXOperand(b, VAXOperand.ABS, 0, ad);
+                    }
+                    return new VAXOperand(b, VAXOperand.LIT, 0, get(ad, t.size));
+                }
+                return new VAXOperand(b, adm, rn, 0);
+            case 9: // *(r)+
+                if (rn == PC) { // absolute
+                    return new VAXOperand(b, VAXOperand.ABS, 0, fetch(4));
+                }
+                return new VAXOperand(b, adm, rn, 0);
+            default: { // b(r), *b(r), w(r), *w(r), l(r), *l(r)
+                int disp = fetch(1 << ((adm - 0xa) >> 1));
+                boolean deref = (adm & 1) == 1;
+                if (rn == PC) {
+                    return new VAXOperand(b,
+                            deref ? VAXOperand.ABSDEF : VAXOperand.ABS, 0, dpc + disp);
+                }
+                return new VAXOperand(b,
+                        deref ? VAXOperand.DISPDEF : VAXOperand.DISP, rn, disp);
+            }
+        }
+    }
+
+    public int getDisplacement() {
+        return insn.oprs[opr++].disp;
+    }
+
+    public int peekOperand(int size) throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return get(address(o, size, false), size);
+    }
+
+    public int getOperand(int size) throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return get(address(o, size, true), size);
+    }
+
+    public int setOperand(int size, int value) throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        if (o.kind == VAXOperand.REG) {
+            ++opr;
+            int rn = o.rn;
+            switch (size) {
+                case 1:
+                    return r[rn] = (byte) value;
+                case 2:
+                    return r[rn] = (short) value;
+                case 4:
+                    return r[rn] = value;
+                case 8:
+                    r[rn + 1] = value < 0 ? -1 : 0;
+                    return r[rn] = value;
+            }
+        }
+        return set(getAddress(size), size, value);
+    }
+
+    // the same for an operand of a fixed size, without branching on it
+    public int peekOperandB() throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return mem.getByte(address(o, 1, false));
+    }
+
+    public int getOperandB() throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return mem.getByte(address(o, 1, true));
+    }
+
+    public int setOperandB(int value) throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        if (o.kind == VAXOperand.REG) {
+            return r[o.rn] = (byte) value;
+        }
+        int addr = address(o, 1, true);
+        touch(addr, 1);
+        return mem.setByte(addr, value);
+    }
+
+    public int peekOperandW() throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return mem.getWord(address(o, 2, false));
+    }
+
+    public int getOperandW() throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return mem.getWord(address(o, 2, true));
+    }
+
+    public int setOperandW(int value) throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        if (o.kind == VAXOperand.REG) {
+            return r[o.rn] = (short) value;
+        }
+        int addr = address(o, 2, true);
+        touch(addr, 2);
+        return mem.setWord(addr, value);
+    }
+
+    public int peekOperandL() throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return mem.getLong(address(o, 4, false));
+    }
+
+    public int getOperandL() throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn];
+        }
+        return mem.getLong(address(o, 4, true));
+    }
+
+    public int setOperandL(int value) throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        if (o.kind == VAXOperand.REG) {
+            return r[o.rn] = value;
+        }
+        int addr = address(o, 4, true);
+        touch(addr, 4);
+        return mem.setLong(addr, value);
+    }
+
+    public int getAddress(int size) throws Exception {
+        return address(insn.oprs[opr++], size, true);
+    }
+
+    private int address(VAXOperand o, int size, boolean update) throws Exception {
+        int rn = o.rn, ret;
+        switch (o.kind) {
+            case VAXOperand.ABS:
+                ret = o.disp;
+                break;
+            case VAXOperand.ABSDEF:
+                ret = get(o.disp, 4);
+                break;
+            case 6: // (r)
+                ret = r[rn];
+                break;
+            case 7: // -(r)
+                ret = update ? (r[rn] -= size) : r[rn] - size;
+                break;
+            case 8: // (r)+
+                ret = r[rn];
+                if (update) {
+                    r[rn] += size;
+                }
+                break;
+            case 9: // *(r)+
+                ret = get(r[rn], 4);
+                if (update) {
+                    r[rn] += 4;
+                }
+                break;
+            case VAXOperand.DISP: // b(r), w(r), l(r)
+                ret = r[rn] + o.disp;
+                break;
+            case VAXOperand.DISPDEF: // *b(r), *w(r), *l(r)
+                ret = get(r[rn] + o.disp, 4);
+                break;
+            default:
+                throw trap.set(VAXTrap.ADDRMODE, insn.pc, o.spec);
+        }
+        if (o.index >= 0) {
+            ret += size * r[o.index];
+        }
+        return ret;
+    }
+
+    public void debug() {
+        err.printf("%08x %08x %08x %08x-%08x %08x %08x %08x-%08x %08x %08x %08x-%08x %08x %08x %c%c%c%c %08x %s",
+                r[0], r[1], r[2], r[3], r[4], r[5], r[6], r[7],
+                r[8], r[9], r[10], r[11], r[12], r[13], r[14],
+                n() ? 'N' : '-', z() ? 'Z' : '-', v() ? 'V' : '-', c() ? 'C' : '-',
+                r[15], dis.disasm1(r[PC]));
+        err.println();
+    }
+
+    public void debugRepl(PrintStream out) {
+        out.printf("r0 = %08x  r1 = %08x  r2 = %08x  r3 = %08x", r[0], r[1], r[2], r[3]);
+        out.println();
+        out.printf("r4 = %08x  r5 = %08x  r6 = %08x  r7 = %08x", r[4], r[5], r[6], r[7]);
+        out.println();
+        out.printf("r8 = %08x  r9 = %08x  r10= %08x  r11= %08x", r[8], r[9], r[10], r[11]);
+        out.println();
+        out.printf("ap = %08x  fp = %08x  sp = %08x  pc = %08x %c%c%c%c",
+                r[12], r[13], r[14], r[15],
+                n() ? 'N' : '-', z() ? 'Z' : '-', v() ? 'V' : '-', c() ? 'C' : '-');
+        out.println();
+    }
+
+    private String symbol(int addr) {
+        return aout == null ? "???" : aout.symT.getOrDefault(addr, "???");
+    }
+
+    public String getCallStack() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < callDepth; ++i) {
+            if (i > 0) {
+                sb.append(" > ");
+            }
+            sb.append(symbol(callStack[i]));
+        }
+        return sb.toString();
+    }
+
+    public void pushCallStack(boolean args) {
+        if (callDepth == callStack.length) {
+            callStack = Arrays.copyOf(callStack, callDepth * 2);
+        }
+        callStack[callDepth++] = r[PC];
+        if (mode >= 2) {
+            String s = getCallStack();
+            if (args) {
+                s += "(" + getArgs() + ")";
+            }
+            err.printf("%-139s %08x %s", s, r[PC], dis.word(r[PC]));
+            err.println();
+        }
+        r[PC] += 2;
+    }
+
+    public String getArgs() {
+        StringBuilder sb = new StringBuilder();
+        int argc = mem.read(r[AP], 4);
+        for (int i = 0; i < argc; ++i) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%08x", mem.read(r[AP] + 4 + i * 4, 4)));
+        }
+        return sb.toString();
+    }
+
+    public void push(int size, int value) throws Exception {
+        set(r[SP] -= size, size, value);
+    }
+
+    public int pop(int size) throws Exception {
+        int ret = get(r[SP], size);
+        r[SP] += size;
+        return ret;
+    }
+
+    public void disasm(PrintStream out) {
+        dis.disasm(out, 0, aout.a_text);
+    }
+
+    public void interpret(PrintStream out, String src) {
+        byte[] bin;
+        try {
+            bin = asm.asm(r[PC], src);
+        } catch (Exception ex) {
+            out.println(ex.getMessage());
+            return;
+        }
+        mem.write(r[PC], bin, 0, bin.length);
+        invalidate(r[PC], bin.length);
+        out.printf("%08x  ", r[PC]);
+        out.println(VAXAsm.binhex(bin) + "  " + dis.disasm1(r[PC]));
+        try {
+            step();
+        } catch (Exception ex) {
+            out.println(ex.getMessage());
+        }
+    }
+
+    // runs until the guest exits and returns its exit status,
+    // or returns -1 without exiting once the step limit is reached
+    public int run(int mode, boolean blocks) throws Exception {
+        dis.setMode(this.mode = mode);
+        this.blocks = blocks;
+        stdout.sync = mode >= 1; // keep the order with the trace output
+        if (mode >= 2) {
+            err.print("   r0       r1       r2       r3   -");
+            err.print("   r4       r5       r6       r7   -");
+            err.print("   r8       r9       r10      r11  -");
+            err.println(" r12(ap)  r13(fp)  r14(sp) flag  r15(pc) disasm");
+        }
+        if (!started) {
+            started = true;
+            pushCallStack(false);
+        }
+        if (scheduled) {
+            return loop();
+        }
+        // the top-level process draws on the budget of the machine a
+        // quantum at a time too, and the tree ends when that is spent
+        long end = limit;
+        try {
+            while (steps < end) {
+                long start = steps, q = kernel.reserve(Math.min(end - steps, VAXScheduler.QUANTUM));
+                if (q == 0) {
+                    break;
+                }
+                limit = start + q;
+                int st;
+                try {
+                    st = loop();
+                } finally {
+                    kernel.refund(q - (steps - start));
+                }
+                if (exited) {
+                    return st;
+                }
+            }
+        } finally {
+            limit = end;
+        }
+        killTree();
+        return -1;
+    }
+
+    // runs up to limit, see run
+    private int loop() throws Exception {
+        int pc = r[PC];
+        try {
+            if (!blocks) {
+                while (steps < limit) {
+                    pc = r[PC];
+                    ++steps;
+                    step();
+                }
+                flush();
+                return -1;
+            }
+            for (VAXBlock b = block(pc);; b = follow(b, pc = r[PC])) {
+                if (limit - steps < b.insns.length) {
+                    while (steps < limit) {
+                        pc = r[PC];
+                        ++steps;
+                        step();
+                    }
+                    flush();
+                    return -1;
+                }
+                if (b.code == null && jit > 0 && mode < 2 && ++b.count == jit) {
+                    b.code = VAXJit.compile(b);
+                }
+                if (b.code != null) {
+                    try {
+                        b.code.run(this, r, b.insns);
+                        steps += b.insns.length;
+                    } catch (Exception e) {
+                        pc = insn.pc;
+                        steps += retired(b, pc);
+                        throw e;
+                    }
+                    continue;
+                }
+                for (VAXInsn i : b.insns) {
+                    pc = i.pc;
+                    ++steps;
+                    if (mode >= 2) {
+                        debug();
+                    }
+                    execute(i);
+                    if (b.gen != blockGen) {
+                        break; // code has been modified
+                    }
+                }
+            }
+        } catch (VAXExit e) {
+            flush();
+            exited = true;
+            if (!scheduled) {
+                killTree();
+            }
+            return e.status;
+        } catch (Exception e) {
+            flush();
+            if (!scheduled) {
+                killTree();
+            }
+            if (e == trap && trap.pc == -1) {
+                trap.pc = pc;
+            }
+            if (callDepth > 0) {
+                for (int i = 0; i < callDepth; ++i) {
+                    if (i > 0) {
+                        err.print(" > ");
+                    }
+                    err.printf("%08x(%s)", callStack[i], symbol(callStack[i]));
+                }
+                err.println();
+            }
+            dis.disasm(err, pc, pc + 1);
+            throw e;
+        }
+    }
+
+    // instructions of b up to and including the one at pc, which stopped
+    // compiled code: the interpreter also counts an instruction that faults
+    private static int retired(VAXBlock b, int pc) {
+        for (int i = 0; i < b.insns.length; ++i) {
+            if (b.insns[i].pc == pc) {
+                return i + 1;
+            }
+        }
+        return b.insns.length;
+    }
+
+    public void cvtlp(int src, int dstlen, int dstaddr) throws Exception {
+        int len = digits(dstlen);
+        BigInteger v = storeDecimal(len, dstaddr, BigInteger.valueOf(src));
+        r[0] = r[1] = r[2] = 0;
+        r[3] = dstaddr;
+        decimal(v, false);
+        if (mode >= 2) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i <= len / 2; ++i) {
+                sb.append(String.format(" %02x", mem.read(dstaddr + i, 1) & 0xff));
+            }
+            err.printf("[cvtlp %d:%08x]%s", src, dstaddr, sb.toString());
+            err.println();
+        }
+    }
+
+    // packed decimal: lengths are digit counts, and R1, R3 and R5 are left
+    // at the operands as the architecture defines, the other registers 0
+
+    private int digits(int len) throws VAXTrap {
+        len &= 0xffff;
+        if (len > VAXDecimal.DIGITS) {
+            throw trap.set(VAXTrap.RESERVED, -1, len);
+        }
+        return len;
+    }
+
+    private BigInteger storeDecimal(int len, int addr, BigInteger v) throws Exception {
+        invalidate(addr, len / 2 + 1);
+        return dec.store(mem, len, addr, v);
+    }
+
+    private void decimal(BigInteger v, boolean c) {
+        setNZVC(v.signum() < 0, v.signum() == 0, dec.overflow, c);
+    }
+
+    private void addp(boolean six, boolean sub) throws Exception {
+        int len1 = digits(getOperand(2));
+        int addr1 = getAddress(1);
+        int len2 = digits(getOperand(2));
+        int addr2 = getAddress(1);
+        int len3 = len2, addr3 = addr2;
+        if (six) {
+            len3 = digits(getOperand(2));
+            addr3 = getAddress(1);
+        }
+        BigInteger a = dec.load(mem, len1, addr1), b = dec.load(mem, len2, addr2);
+        BigInteger v = storeDecimal(len3, addr3, sub ? b.subtract(a) : b.add(a));
+        r[0] = r[2] = 0;
+        r[1] = addr1;
+        r[3] = addr2;
+        if (six) {
+            r[4] = 0;
+            r[5] = addr3;
+        }
+        decimal(v, false);
+    }
+
+    private void mulp(boolean div) throws Exception {
+        int len1 = digits(getOperand(2));
+        int addr1 = getAddress(1);
+        int len2 = digits(getOperand(2));
+        int addr2 = getAddress(1);
+        int len3 = digits(getOperand(2));
+        int addr3 = getAddress(1);
+        BigInteger a = dec.load(mem, len1, addr1), b = dec.load(mem, len2, addr2);
+        if (div && a.signum() == 0) {
+            throw trap.set(VAXTrap.ARITH, -1, VAXTrap.DECDIV);
+        }
+        BigInteger v = storeDecimal(len3, addr3, div ? b.divide(a) : b.multiply(a));
+        r[0] = r[2] = r[4] = 0;
+        r[1] = addr1;
+        r[3] = addr2;
+        r[5] = addr3;
+        decimal(v, false);
+    }
+
+    private void cvtpl() throws Exception {
+        int len = digits(getOperand(2));
+        int addr = getAddress(1);
+        BigInteger v = dec.load(mem, len, addr);
+        r[0] = r[2] = r[3] = 0;
+        r[1] = addr;
+        // stored after the registers, so that it may be one of them
+        int d = setOperand(4, v.intValue());
+        setNZVC(d < 0, d == 0, v.bitLength() > 31, false);
+    }
+
+    private void cvtpt(boolean toPacked) throws Exception {
+        int len1 = digits(getOperand(2));
+        int addr1 = getAddress(1);
+        int tbl = getAddress(1);
+        int len2 = digits(getOperand(2));
+        int addr2 = getAddress(1);
+        BigInteger v;
+        if (toPacked) {
+            v = storeDecimal(len2, addr2, dec.loadTrailing(mem, len1, addr1, tbl));
+        } else {
+            invalidate(addr2, len2);
+            v = dec.storeTrailing(mem, len2, addr2, tbl, dec.load(mem, len1, addr1));
+        }
+        r[0] = r[2] = 0;
+        r[1] = addr1;
+        r[3] = addr2;
+        decimal(v, false);
+    }
+
+    private void movp() throws Exception {
+        int len = digits(getOperand(2));
+        int addr1 = getAddress(1);
+        int addr2 = getAddress(1);
+        BigInteger v = storeDecimal(len, addr2, dec.load(mem, len, addr1));
+        r[0] = r[2] = 0;
+        r[1] = addr1;
+        r[3] = addr2;
+        decimal(v, c());
+    }
+
+    private void cmpp(boolean four) throws Exception {
+        int len1 = digits(getOperand(2));
+        int addr1 = getAddress(1);
+        int len2 = four ? digits(getOperand(2)) : len1;
+        int addr2 = getAddress(1);
+        int cmp = dec.load(mem, len1, addr1).compareTo(dec.load(mem, len2, addr2));
+        r[0] = r[2] = 0;
+        r[1] = addr1;
+        r[3] = addr2;
+        setNZVC(cmp < 0, cmp == 0, false, false);
+    }
+
+    private void ashp() throws Exception {
+        int cnt = getOperand(1);
+        int len1 = digits(getOperand(2));
+        int addr1 = getAddress(1);
+        int round = getOperand(1);
+        int len2 = digits(getOperand(2));
+        int addr2 = getAddress(1);
+        BigInteger v = dec.load(mem, len1, addr1), mag = v.abs();
+        if (cnt >= 0) {
+            mag = mag.multiply(VAXDecimal.pow10(cnt));
+        } else {
+            // the round digit is added to the highest digit shifted out
+            mag = mag.divide(VAXDecimal.pow10(-cnt - 1))
+                    .add(BigInteger.valueOf(round & 15)).divide(BigInteger.TEN);
+        }
+        v = storeDecimal(len2, addr2, v.signum() < 0 ? mag.negate() : mag);
+        r[0] = r[2] = 0;
+        r[1] = addr1;
+        r[3] = addr2;
+        decimal(v, false);
+    }
+
+    // floating instructions work on VAXFloat values; quadwords and
+    // octawords in registers take the following registers
+
+    private long quad(VAXOperand o, boolean update) throws Exception {
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return o.disp;
+            case VAXOperand.REG:
+                return r[o.rn] & 0xffffffffL | (long) r[pair(o, 2)] << 32;
+        }
+        int a = address(o, 8, update);
+        return get(a, 4) & 0xffffffffL | (long) get(a + 4, 4) << 32;
+    }
+
+    private int pair(VAXOperand o, int n) throws VAXTrap {
+        if (o.rn + n - 1 >= PC) {
+            throw trap.set(VAXTrap.ADDRMODE, insn.pc, o.spec);
+        }
+        return o.rn + 1;
+    }
+
+    public long getQuad() throws Exception {
+        return quad(insn.oprs[opr++], true);
+    }
+
+    public long peekQuad() throws Exception {
+        return quad(insn.oprs[opr], false);
+    }
+
+    public long setQuad(long value) throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        if (o.kind == VAXOperand.REG) {
+            ++opr;
+            r[pair(o, 2)] = (int) (value >>> 32);
+            r[o.rn] = (int) value;
+            return value;
+        }
+        int a = getAddress(8);
+        set(a, 4, (int) value);
+        set(a + 4, 4, (int) (value >>> 32));
+        return value;
+    }
+
+    // octawords as {low, high} quadwords
+    private long[] octa(VAXOperand o, boolean update) throws Exception {
+        switch (o.kind) {
+            case VAXOperand.LIT:
+                return new long[]{o.disp, 0};
+            case VAXOperand.REG:
+                pair(o, 4);
+                return new long[]{
+                    r[o.rn] & 0xffffffffL | (long) r[o.rn + 1] << 32,
+                    r[o.rn + 2] & 0xffffffffL | (long) r[o.rn + 3] << 32};
+        }
+        int a = address(o, 16, update);
+        long[] ret = new long[2];
+        for (int i = 0; i < 4; ++i) {
+            ret[i >> 1] |= (get(a + i * 4, 4) & 0xffffffffL) << (i & 1) * 32;
+        }
+        return ret;
+    }
+
+    private void setOcta(long[] value) throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        if (o.kind == VAXOperand.REG) {
+            ++opr;
+            pair(o, 4);
+            for (int i = 3; i >= 0; --i) {
+                r[o.rn + i] = (int) (value[i >> 1] >>> (i & 1) * 32);
+            }
+            return;
+        }
+        int a = getAddress(16);
+        for (int i = 0; i < 4; ++i) {
+            set(a + i * 4, 4, (int) (value[i >> 1] >>> (i & 1) * 32));
+        }
+    }
+
+    private static boolean literal(VAXOperand o) {
+        return o.kind == VAXOperand.LIT && o.spec < 0x40;
+    }
+
+    private long getFloat(int fmt) throws Exception {
+        VAXOperand o = insn.oprs[opr];
+        if (literal(o)) {
+            ++opr;
+            return VAXFloat.literal(fmt, o.spec);
+        } else if (fmt == VAXFloat.F) {
+            return (long) VAXFloat.swap(getOperand(4)) << 32;
+        }
+        return VAXFloat.swap(getQuad());
+    }
+
+    private long peekFloat(int fmt) throws Exception {
+        if (fmt == VAXFloat.F) {
+            return (long) VAXFloat.swap(peekOperand(4)) << 32;
+        }
+        return VAXFloat.swap(peekQuad());
+    }
+
+    private long setFloat(int fmt, long value) throws Exception {
+        if (fmt == VAXFloat.F) {
+            setOperand(4, VAXFloat.swap((int) (value >>> 32)));
+        } else {
+            setQuad(VAXFloat.swap(value));
+        }
+        return value;
+    }
+
+    // H values are {hi, lo} with the words in the order of the other formats
+    private long[] hfloat(long[] o) {
+        return new long[]{VAXFloat.swap(o[0]), VAXFloat.swap(o[1])};
+    }
+
+    private long[] getH() throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        if (literal(o)) {
+            return new long[]{VAXFloat.literal(VAXFloat.H, o.spec), 0};
+        }
+        return hfloat(octa(o, true));
+    }
+
+    private long[] peekH() throws Exception {
+        return hfloat(octa(insn.oprs[opr], false));
+    }
+
+    private long[] setH(long[] value) throws Exception {
+        setOcta(hfloat(value));
+        return value;
+    }
+
+    // register operands hold more than a byte or word source
+    private static int narrow(int size, int v) {
+        return size == 1 ? (byte) v : size == 2 ? (short) v : v;
+    }
+
+    private void floatFlags(int fmt, long d) {
+        setNZVC(d < 0, VAXFloat.exponent(fmt, d) == 0, false, false);
+    }
+
+    private void hFlags(long[] d) {
+        int sign = VAXFloat.signumH(d);
+        setNZVC(sign < 0, sign == 0, false, false);
+    }
+
+    private static final int FADD = 0, FSUB = 1, FMUL = 2, FDIV = 3;
+
+    private long arith(int fmt, int kind, long s1, long s2) throws VAXTrap {
+        switch (kind) {
+            case FADD:
+                return fp.add(fmt, s2, s1, false);
+            case FSUB:
+                return fp.add(fmt, s2, s1, true);
+            case FMUL:
+                return fp.mul(fmt, s2, s1);
+        }
+        return fp.div(fmt, s2, s1);
+    }
+
+    private void arith2(int fmt, int kind) throws Exception {
+        long s1 = getFloat(fmt);
+        long s2 = peekFloat(fmt);
+        floatFlags(fmt, setFloat(fmt, arith(fmt, kind, s1, s2)));
+    }
+
+    private void arith3(int fmt, int kind) throws Exception {
+        long s1 = getFloat(fmt);
+        long s2 = getFloat(fmt);
+        floatFlags(fmt, setFloat(fmt, arith(fmt, kind, s1, s2)));
+    }
+
+    private long[] arithH(int kind, long[] s1, long[] s2) throws VAXTrap {
+        switch (kind) {
+            case FADD:
+                return fp.addH(s2, s1, false);
+            case FSUB:
+                return fp.addH(s2, s1, true);
+            case FMUL:
+                return fp.mulH(s2, s1);
+        }
+        return fp.divH(s2, s1);
+    }
+
+    private void arithH2(int kind) throws Exception {
+        long[] s1 = getH();
+        long[] s2 = peekH();
+        hFlags(setH(arithH(kind, s1, s2)));
+    }
+
+    private void arithH3(int kind) throws Exception {
+        long[] s1 = getH();
+        long[] s2 = getH();
+        hFlags(setH(arithH(kind, s1, s2)));
+    }
+
+    private void movf(int fmt) throws Exception {
+        floatFlags(fmt, setFloat(fmt, fp.check(fmt, getFloat(fmt))));
+    }
+
+    private void mnegf(int fmt) throws Exception {
+        floatFlags(fmt, setFloat(fmt, fp.negate(fmt, getFloat(fmt))));
+    }
+
+    private void tstf(int fmt) throws Exception {
+        floatFlags(fmt, fp.check(fmt, getFloat(fmt)));
+    }
+
+    private void cmpf(int fmt) throws Exception {
+        long s1 = getFloat(fmt);
+        long s2 = getFloat(fmt);
+        int cmp = fp.compare(fmt, s1, s2);
+        setNZVC(cmp < 0, cmp == 0, false, false);
+    }
+
+    private void acbf(int fmt) throws Exception {
+        long s1 = getFloat(fmt);
+        long s2 = getFloat(fmt);
+        long d = setFloat(fmt, fp.add(fmt, peekFloat(fmt), s2, false));
+        setNZVC(d < 0, VAXFloat.exponent(fmt, d) == 0, false, c());
+        int cmp = fp.compare(fmt, d, s1);
+        branch(s2 >= 0 ? cmp <= 0 : cmp >= 0);
+    }
+
+    private void cvtif(int size, int fmt) throws Exception {
+        floatFlags(fmt, setFloat(fmt, fp.fromInt(fmt, narrow(size, getOperand(size)))));
+    }
+
+    private void cvtfi(int fmt, int size, boolean round) throws Exception {
+        long v = fp.toLong(fmt, getFloat(fmt), round);
+        int d = setOperand(size, (int) v);
+        setNZVC(d < 0, d == 0, fp.overflow || v != d, false);
+    }
+
+    private void cvtff(int from, int to) throws Exception {
+        floatFlags(to, setFloat(to, fp.convert(from, to, getFloat(from))));
+    }
+
+    private void poly(int fmt) throws Exception {
+        long arg = getFloat(fmt);
+        int degree = getOperand(2) & 0xffff;
+        int tbl = getAddress(1);
+        if (degree > 31) {
+            throw trap.set(VAXTrap.RESERVED, -1, degree);
+        }
+        int n = degree + 1, size = fmt == VAXFloat.F ? 4 : 8;
+        mem.get(tbl, coefs, 0, n * size);
+        ByteBuffer buf = ByteBuffer.wrap(coefs).order(ByteOrder.LITTLE_ENDIAN);
+        long[] c = new long[n];
+        for (int i = 0; i < n; ++i) {
+            c[i] = size == 4
+                    ? (long) VAXFloat.swap(buf.getInt(i * 4)) << 32
+                    : VAXFloat.swap(buf.getLong(i * 8));
+        }
+        long d = fp.poly(fmt, arg, c, n), m = VAXFloat.swap(d);
+        if (size == 4) {
+            r[0] = VAXFloat.swap((int) (d >>> 32));
+            r[1] = 0;
+        } else {
+            r[0] = (int) m;
+            r[1] = (int) (m >>> 32);
+            r[4] = r[5] = 0;
+        }
+        r[2] = 0;
+        r[3] = tbl + n * size;
+        floatFlags(fmt, d);
+    }
+
+    private void polyh() throws Exception {
+        long[] arg = getH();
+        int degree = getOperand(2) & 0xffff;
+        int tbl = getAddress(1);
+        if (degree > 31) {
+            throw trap.set(VAXTrap.RESERVED, -1, degree);
+        }
+        int n = degree + 1;
+        mem.get(tbl, coefs, 0, n * 16);
+        ByteBuffer buf = ByteBuffer.wrap(coefs).order(ByteOrder.LITTLE_ENDIAN);
+        long[][] c = new long[n][];
+        for (int i = 0; i < n; ++i) {
+            c[i] = hfloat(new long[]{buf.getLong(i * 16), buf.getLong(i * 16 + 8)});
+        }
+        long[] d = fp.polyH(arg, c, n), m = hfloat(d);
+        for (int i = 0; i < 4; ++i) {
+            r[i] = (int) (m[i >> 1] >>> (i & 1) * 32);
+        }
+        r[4] = 0;
+        r[5] = tbl + n * 16;
+        hFlags(d);
+    }
+
+    private void emod(int fmt) throws Exception {
+        long mulr = getFloat(fmt);
+        int ext = getOperand(fmt == VAXFloat.G ? 2 : 1);
+        long d = fp.emod(fmt, mulr, ext, getFloat(fmt));
+        setOperand(4, (int) fp.whole);
+        setFloat(fmt, d);
+        setNZVC(d < 0, VAXFloat.exponent(fmt, d) == 0, fp.overflow, false);
+    }
+
+    private void emodh() throws Exception {
+        long[] mulr = getH();
+        int ext = getOperand(2);
+        long[] d = fp.emodH(mulr, ext, getH());
+        setOperand(4, (int) fp.whole);
+        int sign = VAXFloat.signumH(setH(d));
+        setNZVC(sign < 0, sign == 0, fp.overflow, false);
+    }
+
+    private void movh(boolean negate) throws Exception {
+        long[] s1 = fp.checkH(getH());
+        if (negate && VAXFloat.signumH(s1) != 0) {
+            s1[0] ^= Long.MIN_VALUE;
+        } else if (negate) {
+            s1 = new long[2];
+        }
+        hFlags(setH(s1));
+    }
+
+    private void tsth() throws Exception {
+        hFlags(fp.checkH(getH()));
+    }
+
+    private void cmph() throws Exception {
+        long[] s1 = getH();
+        long[] s2 = getH();
+        int cmp = fp.compareH(s1, s2);
+        setNZVC(cmp < 0, cmp == 0, false, false);
+    }
+
+    private void acbh() throws Exception {
+        long[] s1 = getH();
+        long[] s2 = getH();
+        long[] d = setH(fp.addH(peekH(), s2, false));
+        int sign = VAXFloat.signumH(d);
+        setNZVC(sign < 0, sign == 0, false, c());
+        int cmp = fp.compareH(d, s1);
+        branch(s2[0] >= 0 ? cmp <= 0 : cmp >= 0);
+    }
+
+    private void cvtih(int size) throws Exception {
+        hFlags(setH(fp.intToH(narrow(size, getOperand(size)))));
+    }
+
+    private void cvthi(int size, boolean round) throws Exception {
+        long v = fp.hToLong(getH(), round);
+        int d = setOperand(size, (int) v);
+        setNZVC(d < 0, d == 0, fp.overflow || v != d, false);
+    }
+
+    private void cvtfh(int fmt) throws Exception {
+        hFlags(setH(fp.toH(fmt, getFloat(fmt))));
+    }
+
+    private void cvthf(int fmt) throws Exception {
+        floatFlags(fmt, setFloat(fmt, fp.fromH(fmt, getH())));
+    }
+
+    private void clro() throws Exception {
+        setOcta(new long[2]);
+        setNZVC(false, true, false, c());
+    }
+
+    private void movo() throws Exception {
+        long[] s1 = octa(insn.oprs[opr++], true);
+        setOcta(s1);
+        setNZVC(s1[1] < 0, (s1[0] | s1[1]) == 0, false, c());
+    }
+
+    private void movah() throws Exception {
+        flags(CC_LOGIC, setOperand(4, getAddress(16)), 0, 0);
+    }
+
+    private void pushah() throws Exception {
+        int s1 = getAddress(16);
+        push(4, s1);
+        flags(CC_LOGIC, s1, 0, 0);
+    }
+
+    private void editpcDebug(String cmd) {
+        if (mode < 2) {
+            return;
+        }
+        err.printf("[editpc] r0=%08x r1=%08x r2=%08x r4=%08x r5=%08x %c%c%c%c r3=%08x %s",
+                r[0], r[1], r[2], r[4], r[5],
+                n ? 'N' : '-', z ? 'Z' : '-', v ? 'V' : '-', c ? 'C' : '-',
+                r[3], cmd);
+        err.println();
+    }
+
+    private int editpcRead() throws Exception {
+        if (r[0] == 0) {
+            throw error("editpc: source is too short");
+        }
+        if (r[0] < 0) {
+            r[0] += 0x10000;
+            return 0;
+        }
+        if (((r[0]--) & 1) == 1) {
+            return (mem.get(r[1], 1) >> 4) & 0xf;
+        }
+        return mem.get(r[1]++, 1) & 0xf;
+    }
+
+    public void editpc(int srclen, int srcaddr, int pattern, int dstaddr) throws Exception {
+        int s = mem.get(srcaddr + (srclen >> 1), 1) & 0xf;
+        setNZVC(s == 0xb || s == 0xd, true, false, false);
+        r[0] = srclen;
+        r[1] = srcaddr;
+        r[2] = (n ? '-' : ' ') << 8 | ' ';
+        r[3] = pattern;
+        r[4] = 0;
+        r[5] = dstaddr;
+        OUTER:
+        for (;; r[3]++) {
+            int b = mem.get(r[3], 1) & 0xff;
+            switch (b) {
+                case 0:
+                    editpcDebug("eo$end");
+                    break OUTER;
+                case 1:
+                    editpcDebug("eo$end_float");
+                    if (!c) {
+                        c = true;
+                        r[4] = r[1];
+                        mem.set(r[5]++, 1, (r[2] >> 8) & 0xff);
+                    }
+                    continue;
+            }
+            int rep = b & 15;
+            switch (b >> 4) {
+                case 0x9:
+                    editpcDebug("eo$move " + rep);
+                    for (int i = 0; i < rep; ++i) {
+                        int oldr1 = r[1], num = editpcRead();
+                        if (num != 0 && !c) {
+                            z = false;
+                            c = true;
+                            r[4] = oldr1;
+                        }
+                        mem.set(r[5]++, 1, c ? '0' + num : r[2] & 0xff);
+                    }
+                    break;
+                case 0xa:
+                    editpcDebug("eo$float " + rep);
+                    for (int i = 0; i < rep; ++i) {
+                        int oldr1 = r[1], num = editpcRead();
+                        if (num != 0 && !c) {
+                            z = false;
+                            c = true;
+                            r[4] = oldr1;
+                            mem.set(r[5]++, 1, (r[2] >> 8) & 0xff);
+                        }
+                        mem.set(r[5]++, 1, c ? '0' + num : r[2] & 0xff);
+                    }
+                    break;
+                default:
+                    throw error("editpc: unknown operator %02x", b);
+            }
+        }
+        invalidate(dstaddr, r[5] - dstaddr);
+        if (z) {
+            n = false;
+        }
+        v = r[0] != 0;
+        r[0] = srclen;
+        r[1] = r[4];
+        r[2] = 0;
+        r[4] = 0;
+        if (mode >= 2) {
+            String dststr = getString(dstaddr, r[5] - dstaddr);
+            err.printf("[editpc:%08x] \"%s\"", dstaddr, dststr);
+            err.println();
+        }
+    }
+
+    public void step() throws Exception {
+        if (mode >= 2) {
+            debug();
+        }
+        execute(decode(r[PC]));
+    }
+
+    public void execute(VAXInsn insn) throws Exception {
+        this.insn = insn;
+        opr = 0;
+        r[PC] = insn.next;
+        insn.handler.execute(this);
+    }
+
+    static final VAXHandler[] handlers = new VAXHandler[0x10000];
+
+    static {
+        VAXHandler unknown = vm -> {
+            throw vm.trap.set(VAXTrap.OPCODE, vm.insn.pc, vm.insn.op);
+        };
+        Arrays.fill(handlers, unknown);
+        for (VAXOp op : VAXOp.values()) {
+            VAXHandler h = handler(op);
+            if (h != null) {
+                handlers[op.op] = h;
+            }
+        }
+    }
+
+    private static VAXHandler handler(VAXOp op) {
+        switch (op) {
+            case NOP:
+                return vm -> {
+                };
+            case CHMK:
+                return VAX::syscall;
+            case CALLS:
+                return VAX::calls;
+            case RET:
+                return VAX::ret;
+            case BRB:
+            case BRW:
+                return vm -> vm.r[PC] += vm.getDisplacement();
+            case JMP:
+                return vm -> vm.r[PC] = vm.getAddress(1);
+            case BNEQ:
+                return vm -> vm.branch(!vm.z());
+            case BEQL:
+                return vm -> vm.branch(vm.z());
+            case BGTR:
+                return vm -> vm.branch(!(vm.n() || vm.z()));
+            case BLEQ:
+                return vm -> vm.branch(vm.n() || vm.z());
+            case BGEQ:
+                return vm -> vm.branch(!vm.n());
+            case BLSS:
+                return vm -> vm.branch(vm.n());
+            case BGTRU:
+                return vm -> vm.branch(!(vm.c() || vm.z()));
+            case BLEQU:
+                return vm -> vm.branch(vm.c() || vm.z());
+            case BVC:
+                return vm -> vm.branch(!vm.v());
+            case BVS:
+                return vm -> vm.branch(vm.v());
+            case BCC:
+                return vm -> vm.branch(!vm.c());
+            case BLSSU:
+                return vm -> vm.branch(vm.c());
+            case BBS:
+                return vm -> vm.bb(1);
+            case BBC:
+                return vm -> vm.bb(0);
+            case BBSS:
+                return vm -> vm.bbx(1, true);
+            case BBCS:
+                return vm -> vm.bbx(0, true);
+            case BBSC:
+                return vm -> vm.bbx(1, false);
+            case BBCC:
+                return vm -> vm.bbx(0, false);
+            case BBSSI:
+                return vm -> vm.bbxi(1, true);
+            case BBCCI:
+                return vm -> vm.bbxi(0, false);
+            case ADAWI:
+                return VAX::adawi;
+            case INSQUE:
+                return VAX::insque;
+            case REMQUE:
+                return VAX::remque;
+            case INSQHI:
+                return VAX::insqhi;
+            case INSQTI:
+                return VAX::insqti;
+            case REMQHI:
+                return VAX::remqhi;
+            case REMQTI:
+                return VAX::remqti;
+            case BLBS:
+                return vm -> vm.blb(1);
+            case BLBC:
+                return vm -> vm.blb(0);
+            case SOBGEQ:
+                return vm -> vm.sob(0);
+            case SOBGTR:
+                return vm -> vm.sob(1);
+            case ACBB:
+                return vm -> vm.acb(1);
+            case ACBW:
+                return vm -> vm.acb(2);
+            case ACBL:
+                return vm -> vm.acb(4);
+            case CASEB:
+                return vm -> vm.casex(1);
+            case CASEW:
+                return vm -> vm.casex(2);
+            case CASEL:
+                return vm -> vm.casex(4);
+            case CVTBW:
+                return vm -> vm.cvt(1, 2);
+            case CVTBL:
+                return vm -> vm.cvt(1, 4);
+            case CVTWB:
+                return vm -> vm.cvt(2, 1);
+            case CVTWL:
+                return vm -> vm.cvt(2, 4);
+            case CVTLB:
+                return vm -> vm.cvt(4, 1);
+            case CVTLW:
+                return vm -> vm.cvt(4, 2);
+            case ADDP4:
+                return vm -> vm.addp(false, false);
+            case ADDP6:
+                return vm -> vm.addp(true, false);
+            case SUBP4:
+                return vm -> vm.addp(false, true);
+            case SUBP6:
+                return vm -> vm.addp(true, true);
+            case MULP:
+                return vm -> vm.mulp(false);
+            case DIVP:
+                return vm -> vm.mulp(true);
+            case CVTPL:
+                return VAX::cvtpl;
+            case CVTPT:
+                return vm -> vm.cvtpt(false);
+            case CVTTP:
+                return vm -> vm.cvtpt(true);
+            case MOVP:
+                return VAX::movp;
+            case CMPP3:
+                return vm -> vm.cmpp(false);
+            case CMPP4:
+                return vm -> vm.cmpp(true);
+            case ASHP:
+                return VAX::ashp;
+            case CVTLP:
+                return vm -> vm.cvtlp(vm.getOperand(4), vm.getOperand(2), vm.getAddress(1));
+            case EDITPC:
+                return VAX::editpc;
+            case MOVZBL:
+                return vm -> vm.movz(1, 4);
+            case MOVZBW:
+                return vm -> vm.movz(1, 2);
+            case MOVZWL:
+                return vm -> vm.movz(2, 4);
+            case EXTV:
+                return vm -> vm.extv(true);
+            case EXTZV:
+                return vm -> vm.extv(false);
+            case ADDB2:
+                return VAX::addb2;
+            case ADDW2:
+                return VAX::addw2;
+            case ADDL2:
+                return VAX::addl2;
+            case ADDB3:
+                return VAX::addb3;
+            case ADDW3:
+                return VAX::addw3;
+            case ADDL3:
+                return VAX::addl3;
+            case SUBB2:
+                return VAX::subb2;
+            case SUBW2:
+                return VAX::subw2;
+            case SUBL2:
+                return VAX::subl2;
+            case SUBB3:
+                return VAX::subb3;
+            case SUBW3:
+                return VAX::subw3;
+            case SUBL3:
+                return VAX::subl3;
+            case MOVB:
+                return VAX::movb;
+            case MOVW:
+                return VAX::movw;
+            case MOVL:
+                return VAX::movl;
+            case CMPB:
+                return VAX::cmpb;
+            case CMPW:
+                return VAX::cmpw;
+            case CMPL:
+                return VAX::cmpl;
+            case CLRB:
+                return VAX::clrb;
+            case CLRW:
+                return VAX::clrw;
+            case CLRL:
+                return VAX::clrl;
+            case CLRQ:
+                return VAX::clrq;
+            case TSTB:
+                return VAX::tstb;
+            case TSTW:
+                return VAX::tstw;
+            case TSTL:
+                return VAX::tstl;
+            case INCB:
+                return VAX::incb;
+            case INCW:
+                return VAX::incw;
+            case INCL:
+                return VAX::incl;
+            case DECB:
+                return VAX::decb;
+            case DECW:
+                return VAX::decw;
+            case DECL:
+                return VAX::decl;
+            case MOVAB:
+                return vm -> vm.mova(1);
+            case MOVAW:
+                return vm -> vm.mova(2);
+            case MOVAL:
+                return vm -> vm.mova(4);
+            case PUSHAB:
+                return vm -> vm.pusha(1);
+            case PUSHAW:
+                return vm -> vm.pusha(2);
+            case PUSHAL:
+                return vm -> vm.pusha(4);
+            case PUSHL:
+                return VAX::pushl;
+            case BISB2:
+                return VAX::bisb2;
+            case BISW2:
+                return VAX::bisw2;
+            case BISL2:
+                return VAX::bisl2;
+            case BISB3:
+                return VAX::bisb3;
+            case BISW3:
+                return VAX::bisw3;
+            case BISL3:
+                return VAX::bisl3;
+            case BICB2:
+                return VAX::bicb2;
+            case BICW2:
+                return VAX::bicw2;
+            case BICL2:
+                return VAX::bicl2;
+            case BICB3:
+                return VAX::bicb3;
+            case BICW3:
+                return VAX::bicw3;
+            case BICL3:
+                return VAX::bicl3;
+            case BITB:
+                return VAX::bitb;
+            case BITW:
+                return VAX::bitw;
+            case BITL:
+                return VAX::bitl;
+            case MNEGB:
+                return VAX::mnegb;
+            case MNEGW:
+                return VAX::mnegw;
+            case MNEGL:
+                return VAX::mnegl;
+            case MULB2:
+                return VAX::mulb2;
+            case MULW2:
+                return VAX::mulw2;
+            case MULL2:
+                return VAX::mull2;
+            case MULB3:
+                return VAX::mulb3;
+            case MULW3:
+                return VAX::mulw3;
+            case MULL3:
+                return VAX::mull3;
+            case DIVB2:
+                return VAX::divb2;
+            case DIVW2:
+                return VAX::divw2;
+            case DIVL2:
+                return VAX::divl2;
+            case DIVB3:
+                return VAX::divb3;
+            case DIVW3:
+                return VAX::divw3;
+            case DIVL3:
+                return VAX::divl3;
+            case XORB2:
+                return VAX::xorb2;
+            case XORW2:
+                return VAX::xorw2;
+            case XORL2:
+                return VAX::xorl2;
+            case XORB3:
+                return VAX::xorb3;
+            case XORW3:
+                return VAX::xorw3;
+            case XORL3:
+                return VAX::xorl3;
+            case MCOMB:
+                return VAX::mcomb;
+            case MCOMW:
+                return VAX::mcomw;
+            case MCOML:
+                return VAX::mcoml;
+            case MOVAQ:
+                return vm -> vm.mova(8);
+            case PUSHAQ:
+                return vm -> vm.pusha(8);
+            case ADWC:
+                return VAX::adwc;
+            case SBWC:
+                return VAX::sbwc;
+            case ASHL:
+                return VAX::ashl;
+            case ASHQ:
+                return VAX::ashq;
+            case ROTL:
+                return VAX::rotl;
+            case EMUL:
+                return VAX::emul;
+            case EDIV:
+                return VAX::ediv;
+            case MOVQ:
+                return VAX::movq;
+            case AOBLSS:
+                return vm -> vm.aob(false);
+            case AOBLEQ:
+                return vm -> vm.aob(true);
+            case INSV:
+                return VAX::insv;
+            case CMPV:
+                return vm -> vm.cmpv(true);
+            case CMPZV:
+                return vm -> vm.cmpv(false);
+            case FFS:
+                return vm -> vm.ffs(true);
+            case FFC:
+                return vm -> vm.ffs(false);
+            case MOVC3:
+                return VAX::movc3;
+            case MOVC5:
+                return VAX::movc5;
+            case CMPC3:
+                return vm -> vm.cmpc(false);
+            case CMPC5:
+                return vm -> vm.cmpc(true);
+            case LOCC:
+                return vm -> vm.locc(true);
+            case SKPC:
+                return vm -> vm.locc(false);
+            case SCANC:
+                return vm -> vm.scanc(false);
+            case SPANC:
+                return vm -> vm.scanc(true);
+            case MOVTC:
+                return vm -> vm.movtc(false);
+            case MOVTUC:
+                return vm -> vm.movtc(true);
+            case MATCHC:
+                return VAX::matchc;
+            case ADDF2:
+                return vm -> vm.arith2(VAXFloat.F, FADD);
+            case ADDF3:
+                return vm -> vm.arith3(VAXFloat.F, FADD);
+            case SUBF2:
+                return vm -> vm.arith2(VAXFloat.F, FSUB);
+            case SUBF3:
+                return vm -> vm.arith3(VAXFloat.F, FSUB);
+            case MULF2:
+                return vm -> vm.arith2(VAXFloat.F, FMUL);
+            case MULF3:
+                return vm -> vm.arith3(VAXFloat.F, FMUL);
+            case DIVF2:
+                return vm -> vm.arith2(VAXFloat.F, FDIV);
+            case DIVF3:
+                return vm -> vm.arith3(VAXFloat.F, FDIV);
+            case CVTFB:
+                return vm -> vm.cvtfi(VAXFloat.F, 1, false);
+            case CVTFW:
+                return vm -> vm.cvtfi(VAXFloat.F, 2, false);
+            case CVTFL:
+                return vm -> vm.cvtfi(VAXFloat.F, 4, false);
+            case CVTRFL:
+                return vm -> vm.cvtfi(VAXFloat.F, 4, true);
+            case CVTBF:
+                return vm -> vm.cvtif(1, VAXFloat.F);
+            case CVTWF:
+                return vm -> vm.cvtif(2, VAXFloat.F);
+            case CVTLF:
+                return vm -> vm.cvtif(4, VAXFloat.F);
+            case ACBF:
+                return vm -> vm.acbf(VAXFloat.F);
+            case MOVF:
+                return vm -> vm.movf(VAXFloat.F);
+            case CMPF:
+                return vm -> vm.cmpf(VAXFloat.F);
+            case MNEGF:
+                return vm -> vm.mnegf(VAXFloat.F);
+            case TSTF:
+                return vm -> vm.tstf(VAXFloat.F);
+            case CVTFH:
+                return vm -> vm.cvtfh(VAXFloat.F);
+            case CVTHF:
+                return vm -> vm.cvthf(VAXFloat.F);
+            case ADDD2:
+                return vm -> vm.arith2(VAXFloat.D, FADD);
+            case ADDD3:
+                return vm -> vm.arith3(VAXFloat.D, FADD);
+            case SUBD2:
+                return vm -> vm.arith2(VAXFloat.D, FSUB);
+            case SUBD3:
+                return vm -> vm.arith3(VAXFloat.D, FSUB);
+            case MULD2:
+                return vm -> vm.arith2(VAXFloat.D, FMUL);
+            case MULD3:
+                return vm -> vm.arith3(VAXFloat.D, FMUL);
+            case DIVD2:
+                return vm -> vm.arith2(VAXFloat.D, FDIV);
+            case DIVD3:
+                return vm -> vm.arith3(VAXFloat.D, FDIV);
+            case CVTDB:
+                return vm -> vm.cvtfi(VAXFloat.D, 1, false);
+            case CVTDW:
+                return vm -> vm.cvtfi(VAXFloat.D, 2, false);
+            case CVTDL:
+                return vm -> vm.cvtfi(VAXFloat.D, 4, false);
+            case CVTRDL:
+                return vm -> vm.cvtfi(VAXFloat.D, 4, true);
+            case CVTBD:
+                return vm -> vm.cvtif(1, VAXFloat.D);
+            case CVTWD:
+                return vm -> vm.cvtif(2, VAXFloat.D);
+            case CVTLD:
+                return vm -> vm.cvtif(4, VAXFloat.D);
+            case ACBD:
+                return vm -> vm.acbf(VAXFloat.D);
+            case MOVD:
+                return vm -> vm.movf(VAXFloat.D);
+            case CMPD:
+                return vm -> vm.cmpf(VAXFloat.D);
+            case MNEGD:
+                return vm -> vm.mnegf(VAXFloat.D);
+            case TSTD:
+                return vm -> vm.tstf(VAXFloat.D);
+            case CVTDH:
+                return vm -> vm.cvtfh(VAXFloat.D);
+            case CVTHD:
+                return vm -> vm.cvthf(VAXFloat.D);
+            case ADDG2:
+                return vm -> vm.arith2(VAXFloat.G, FADD);
+            case ADDG3:
+                return vm -> vm.arith3(VAXFloat.G, FADD);
+            case SUBG2:
+                return vm -> vm.arith2(VAXFloat.G, FSUB);
+            case SUBG3:
+                return vm -> vm.arith3(VAXFloat.G, FSUB);
+            case MULG2:
+                return vm -> vm.arith2(VAXFloat.G, FMUL);
+            case MULG3:
+                return vm -> vm.arith3(VAXFloat.G, FMUL);
+            case DIVG2:
+                return vm -> vm.arith2(VAXFloat.G, FDIV);
+            case DIVG3:
+                return vm -> vm.arith3(VAXFloat.G, FDIV);
+            case CVTGB:
+                return vm -> vm.cvtfi(VAXFloat.G, 1, false);
+            case CVTGW:
+                return vm -> vm.cvtfi(VAXFloat.G, 2, false);
+            case CVTGL:
+                return vm -> vm.cvtfi(VAXFloat.G, 4, false);
+            case CVTRGL:
+                return vm -> vm.cvtfi(VAXFloat.G, 4, true);
+            case CVTBG:
+                return vm -> vm.cvtif(1, VAXFloat.G);
+            case CVTWG:
+                return vm -> vm.cvtif(2, VAXFloat.G);
+            case CVTLG:
+                return vm -> vm.cvtif(4, VAXFloat.G);
+            case ACBG:
+                return vm -> vm.acbf(VAXFloat.G);
+            case MOVG:
+                return vm -> vm.movf(VAXFloat.G);
+            case CMPG:
+                return vm -> vm.cmpf(VAXFloat.G);
+            case MNEGG:
+                return vm -> vm.mnegf(VAXFloat.G);
+            case TSTG:
+                return vm -> vm.tstf(VAXFloat.G);
+            case CVTGH:
+                return vm -> vm.cvtfh(VAXFloat.G);
+            case CVTHG:
+                return vm -> vm.cvthf(VAXFloat.G);
+            case CVTFD:
+                return vm -> vm.cvtff(VAXFloat.F, VAXFloat.D);
+            case CVTDF:
+                return vm -> vm.cvtff(VAXFloat.D, VAXFloat.F);
+            case CVTFG:
+                return vm -> vm.cvtff(VAXFloat.F, VAXFloat.G);
+            case CVTGF:
+                return vm -> vm.cvtff(VAXFloat.G, VAXFloat.F);
+            case ADDH2:
+                return vm -> vm.arithH2(FADD);
+            case ADDH3:
+                return vm -> vm.arithH3(FADD);
+            case SUBH2:
+                return vm -> vm.arithH2(FSUB);
+            case SUBH3:
+                return vm -> vm.arithH3(FSUB);
+            case MULH2:
+                return vm -> vm.arithH2(FMUL);
+            case MULH3:
+                return vm -> vm.arithH3(FMUL);
+            case DIVH2:
+                return vm -> vm.arithH2(FDIV);
+            case DIVH3:
+                return vm -> vm.arithH3(FDIV);
+            case CVTHB:
+                return vm -> vm.cvthi(1, false);
+            case CVTBH:
+                return vm -> vm.cvtih(1);
+            case CVTHW:
+                return vm -> vm.cvthi(2, false);
+            case CVTWH:
+                return vm -> vm.cvtih(2);
+            case CVTHL:
+                return vm -> vm.cvthi(4, false);
+            case CVTLH:
+                return vm -> vm.cvtih(4);
+            case CVTRHL:
+                return vm -> vm.cvthi(4, true);
+            case ACBH:
+                return VAX::acbh;
+            case MOVH:
+                return vm -> vm.movh(false);
+            case MNEGH:
+                return vm -> vm.movh(true);
+            case CMPH:
+                return VAX::cmph;
+            case TSTH:
+                return VAX::tsth;
+            case CLRH:
+                return VAX::clro;
+            case MOVO:
+                return VAX::movo;
+            case POLYF:
+                return vm -> vm.poly(VAXFloat.F);
+            case POLYD:
+                return vm -> vm.poly(VAXFloat.D);
+            case POLYG:
+                return vm -> vm.poly(VAXFloat.G);
+            case POLYH:
+                return VAX::polyh;
+            case EMODF:
+                return vm -> vm.emod(VAXFloat.F);
+            case EMODD:
+                return vm -> vm.emod(VAXFloat.D);
+            case EMODG:
+                return vm -> vm.emod(VAXFloat.G);
+            case EMODH:
+                return VAX::emodh;
+            case MOVAH:
+                return VAX::movah;
+            case PUSHAH:
+                return VAX::pushah;
+        }
+        return null;
+    }
+
+    private void calls() throws Exception {
+        int s1 = getOperand(4);
+        int s2 = getAddress(4);
+        int d = get(s2, 2); // entry mask
+        push(4, s1);
+        int tmp = r[SP];
+        r[SP] &= ~3;
+        if ((d & 0xfff) != 0) {
+            for (int i = 11, bit = 0x800; i >= 0; --i, bit >>= 1) {
+                if ((d & bit) != 0) {
+                    push(4, r[i]);
+                }
+            }
+        }
+        push(4, r[PC]);
+        push(4, r[FP]);
+        push(4, r[AP]);
+        push(4, ((tmp & 3) << 30)
+                | 0x2000
+                | ((d & 0xfff) << 16)
+                | getNZVC());
+        push(4, 0); // handler
+        r[AP] = tmp;
+        r[FP] = r[SP];
+        r[PC] = s2;
+        setNZVC(false, false, false, false);
+        pushCallStack(true);
+    }
+
+    private void ret() throws Exception {
+        r[SP] = r[FP] + 4;
+        int tmp = pop(4);
+        setNZVC((tmp & 8) != 0, (tmp & 4) != 0, (tmp & 2) != 0, (tmp & 1) != 0);
+        r[AP] = pop(4);
+        r[FP] = pop(4);
+        r[PC] = pop(4);
+        if ((tmp & 0xfff0000) != 0) {
+            for (int i = 0, bit = 0x10000; i <= 11; ++i, bit <<= 1) {
+                if ((tmp & bit) != 0) {
+                    r[i] = pop(4);
+                }
+            }
+        }
+        r[SP] += (tmp >> 30) & 3;
+        if ((tmp & 0x2000) != 0) { // calls
+            int argc = pop(4);
+            r[SP] += argc * 4;
+        }
+        if (callDepth > 0) {
+            --callDepth;
+        }
+        if (mode >= 2) {
+            err.println(getCallStack());
+        }
+    }
+
+    private void branch(boolean cond) {
+        int disp = getDisplacement();
+        if (cond) {
+            r[PC] += disp;
+        }
+    }
+
+    // a bit of rn with a register base, otherwise of the byte pos >> 3
+    // past the base address; returns the bit number within it
+    private int bitRn, bitAddr;
+
+    private int bitBase(int pos) throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        if (o.kind == VAXOperand.REG) {
+            if (Integer.compareUnsigned(pos, 31) > 0) {
+                throw trap.set(VAXTrap.RESERVED, -1, pos);
+            }
+            bitRn = o.rn;
+            return pos;
+        }
+        bitRn = -1;
+        bitAddr = address(o, 1, true) + (pos >> 3);
+        return pos & 7;
+    }
+
+    private void bb(int bit) throws Exception {
+        int b = bitBase(getOperand(4));
+        int base = bitRn >= 0 ? r[bitRn] : get(bitAddr, 1);
+        branch(((base >> b) & 1) == bit);
+    }
+
+    private void bbx(int bit, boolean set) throws Exception {
+        int b = bitBase(getOperand(4));
+        int base = bitRn >= 0 ? r[bitRn] : get(bitAddr, 1);
+        int d = set ? base | (1 << b) : base & ~(1 << b);
+        if (bitRn >= 0) {
+            r[bitRn] = d;
+        } else {
+            set(bitAddr, 1, d);
+        }
+        branch(((base >> b) & 1) == bit);
+    }
+
+    // interlocked: the bit is flipped atomically in its aligned longword
+    private void bbxi(int bit, boolean set) throws Exception {
+        int b = bitBase(getOperand(4));
+        int base;
+        if (bitRn >= 0) {
+            base = r[bitRn];
+            r[bitRn] = set ? base | (1 << b) : base & ~(1 << b);
+        } else {
+            int a = bitAddr & ~3, sh = (bitAddr & 3) << 3;
+            touch(a, 4);
+            base = (set ? mem.getAndOr(a, 1 << (sh + b)) : mem.getAndAnd(a, ~(1 << (sh + b)))) >> sh;
+        }
+        branch(((base >> b) & 1) == bit);
+    }
+
+    private void adawi() throws Exception {
+        int s1 = (short) getOperand(2);
+        VAXOperand o = insn.oprs[opr];
+        if (o.kind == VAXOperand.REG) {
+            int s2 = (short) peekOperand(2);
+            flags(CC_ADD, setOperand(2, s2 + s1), s1, s2);
+            return;
+        }
+        int a = getAddress(2);
+        if ((a & 1) != 0) {
+            throw trap.set(VAXTrap.RESERVED, -1, a);
+        }
+        touch(a, 2);
+        int s2 = mem.getAndAddWord(a, s1);
+        flags(CC_ADD, (short) (s2 + s1), s1, s2);
+    }
+
+    private void insque() throws Exception {
+        int entry = getAddress(1);
+        int pred = getAddress(1);
+        int succ = get(pred, 4);
+        set(entry, 4, succ);
+        set(entry + 4, 4, pred);
+        set(succ + 4, 4, entry);
+        set(pred, 4, entry);
+        setNZVC(succ < pred, succ == pred, false, Integer.compareUnsigned(succ, pred) < 0);
+    }
+
+    private void remque() throws Exception {
+        int entry = getAddress(1);
+        int succ = get(entry, 4);
+        int pred = get(entry + 4, 4);
+        set(pred, 4, succ);
+        set(succ + 4, 4, pred);
+        setOperand(4, entry);
+        setNZVC(succ < pred, succ == pred, entry == pred, Integer.compareUnsigned(succ, pred) < 0);
+    }
+
+    // self-relative queues: headers and entries are quadword aligned and
+    // bit 0 of the header's forward link is the secondary interlock, taken
+    // and released with host atomics; another holder only sets C
+
+    private int queue(int addr) throws Exception {
+        if ((addr & 7) != 0) {
+            throw trap.set(VAXTrap.RESERVED, -1, addr);
+        }
+        return addr;
+    }
+
+    private int lock(int header) throws Exception {
+        touch(header, 4);
+        return mem.getAndOr(header, 1);
+    }
+
+    private void release(int header, int flink) throws Exception {
+        mem.getAndSet(header, flink);
+    }
+
+    private void insqhi() throws Exception {
+        int entry = queue(getAddress(1));
+        int header = queue(getAddress(8));
+        int flink = lock(header);
+        if ((flink & 1) != 0) {
+            setNZVC(false, false, false, true);
+            return;
+        }
+        boolean first = flink == 0;
+        try {
+            int succ = queue(header + flink);
+            set(entry, 4, succ - entry);
+            set(entry + 4, 4, header - entry);
+            set(succ + 4, 4, entry - succ);
+            flink = entry - header;
+        } finally {
+            release(header, flink);
+        }
+        setNZVC(false, first, false, false);
+    }
+
+    private void insqti() throws Exception {
+        int entry = queue(getAddress(1));
+        int header = queue(getAddress(8));
+        int flink = lock(header);
+        if ((flink & 1) != 0) {
+            setNZVC(false, false, false, true);
+            return;
+        }
+        boolean first = flink == 0;
+        try {
+            int pred = queue(header + get(header + 4, 4));
+            set(entry, 4, header - entry);
+            set(entry + 4, 4, pred - entry);
+            if (pred != header) {
+                set(pred, 4, entry - pred);
+            }
+            set(header + 4, 4, entry - header);
+            if (first) {
+                flink = entry - header;
+            }
+        } finally {
+            release(header, flink);
+        }
+        setNZVC(false, first, false, false);
+    }
+
+    private void remqhi() throws Exception {
+        int header = queue(getAddress(8));
+        int flink = lock(header);
+        if ((flink & 1) != 0) {
+            setNZVC(false, false, true, true);
+            return;
+        }
+        int entry = header;
+        try {
+            if (flink != 0) {
+                entry = queue(header + flink);
+                int succ = queue(entry + get(entry, 4));
+                set(succ + 4, 4, header - succ);
+                flink = succ - header;
+            }
+        } finally {
+            release(header, flink);
+        }
+        setOperand(4, entry);
+        setNZVC(false, flink == 0, entry == header, false);
+    }
+
+    private void remqti() throws Exception {
+        int header = queue(getAddress(8));
+        int flink = lock(header);
+        if ((flink & 1) != 0) {
+            setNZVC(false, false, true, true);
+            return;
+        }
+        int entry = header;
+        try {
+            if (flink != 0) {
+                entry = queue(header + get(header + 4, 4));
+                int pred = queue(entry + get(entry + 4, 4));
+                if (pred == header) {
+                    flink = 0;
+                } else {
+                    set(pred, 4, header - pred);
+                }
+                set(header + 4, 4, pred - header);
+            }
+        } finally {
+            release(header, flink);
+        }
+        setOperand(4, entry);
+        setNZVC(false, flink == 0, entry == header, false);
+    }
+
+    private void blb(int bit) throws Exception {
+        int src = getOperand(4);
+        branch((src & 1) == bit);
+    }
+
+    private void sob(int limit) throws Exception {
+        int s1 = peekOperand(4);
+        int d = setOperand(4, s1 - 1);
+        flags(CC_SOB, d, s1, 0);
+        branch(d >= limit);
+    }
+
+    private void acb(int size) throws Exception {
+        int s1 = getOperand(size);
+        int s2 = getOperand(size);
+        int s3 = peekOperand(size);
+        int d = setOperand(size, s3 + s2);
+        flags(CC_ACB, d, s2, s3);
+        branch((s2 >= 0 && d <= s1) || (s2 < 0 && d >= s1));
+    }
+
+    private void casex(int size) throws Exception {
+        int s1 = getOperand(size);
+        int s2 = getOperand(size);
+        int s3 = getOperand(size);
+        int tmp = s1 - s2;
+        if (0 <= tmp && tmp <= s3) {
+            r[PC] += get(r[PC] + (tmp << 1), 2);
+        } else {
+            r[PC] += (s3 + 1) << 1;
+        }
+        flags(CC_CASE, tmp - s3, 0, tmp);
+    }
+
+    private void cvt(int ssize, int dsize) throws Exception {
+        int s1 = getOperand(ssize);
+        int d = setOperand(dsize, s1);
+        flags(CC_CVT, d, s1, 0);
+    }
+
+    private void editpc() throws Exception {
+        int s1 = getOperand(2);
+        int s2 = getAddress(1);
+        int s3 = getAddress(1);
+        editpc(s1, s2, s3, getAddress(1));
+    }
+
+    private void movz(int ssize, int dsize) throws Exception {
+        int s1 = getOperand(ssize);
+        setOperand(dsize, ssize == 1
+                ? Byte.toUnsignedInt((byte) s1)
+                : Short.toUnsignedInt((short) s1));
+        flags(CC_LOGIC, s1 == 0 ? 0 : 1, 0, 0);
+    }
+
+    private void addb2() throws Exception {
+        int s1 = getOperandB();
+        int s2 = peekOperandB();
+        flags(CC_ADD, setOperandB(s2 + s1), s1, s2);
+    }
+
+    private void addw2() throws Exception {
+        int s1 = getOperandW();
+        int s2 = peekOperandW();
+        flags(CC_ADD, setOperandW(s2 + s1), s1, s2);
+    }
+
+    private void addl2() throws Exception {
+        int s1 = getOperandL();
+        int s2 = peekOperandL();
+        flags(CC_ADD, setOperandL(s2 + s1), s1, s2);
+    }
+
+    private void addb3() throws Exception {
+        int s1 = getOperandB();
+        int s2 = getOperandB();
+        flags(CC_ADD, setOperandB(s2 + s1), s1, s2);
+    }
+
+    private void addw3() throws Exception {
+        int s1 = getOperandW();
+        int s2 = getOperandW();
+        flags(CC_ADD, setOperandW(s2 + s1), s1, s2);
+    }
+
+    private void addl3() throws Exception {
+        int s1 = getOperandL();
+        int s2 = getOperandL();
+        flags(CC_ADD, setOperandL(s2 + s1), s1, s2);
+    }
+
+    private void subb2() throws Exception {
+        int s1 = getOperandB();
+        int s2 = peekOperandB();
+        flags(CC_SUB, setOperandB(s2 - s1), s1, s2);
+    }
+
+    private void subw2() throws Exception {
+        int s1 = getOperandW();
+        int s2 = peekOperandW();
+        flags(CC_SUB, setOperandW(s2 - s1), s1, s2);
+    }
+
+    private void subl2() throws Exception {
+        int s1 = getOperandL();
+        int s2 = peekOperandL();
+        flags(CC_SUB, setOperandL(s2 - s1), s1, s2);
+    }
+
+    private void subb3() throws Exception {
+        int s1 = getOperandB();
+        int s2 = getOperandB();
+        flags(CC_SUB, setOperandB(s2 - s1), s1, s2);
+    }
+
+    private void subw3() throws Exception {
+        int s1 = getOperandW();
+        int s2 = getOperandW();
+        flags(CC_SUB, setOperandW(s2 - s1), s1, s2);
+    }
+
+    private void subl3() throws Exception {
+        int s1 = getOperandL();
+        int s2 = getOperandL();
+        flags(CC_SUB, setOperandL(s2 - s1), s1, s2);
+    }
+
+    private void movb() throws Exception {
+        flags(CC_LOGIC, setOperandB(getOperandB()), 0, 0);
+    }
+
+    private void movw() throws Exception {
+        flags(CC_LOGIC, setOperandW(getOperandW()), 0, 0);
+    }
+
+    private void movl() throws Exception {
+        flags(CC_LOGIC, setOperandL(getOperandL()), 0, 0);
+    }
+
+    private void cmpb() throws Exception {
+        int s1 = getOperandB();
+        int s2 = getOperandB();
+        flags(CC_CMP, s1 - s2, s1, s2);
+    }
+
+    private void cmpw() throws Exception {
+        int s1 = getOperandW();
+        int s2 = getOperandW();
+        flags(CC_CMP, s1 - s2, s1, s2);
+    }
+
+    private void cmpl() throws Exception {
+        int s1 = getOperandL();
+        int s2 = getOperandL();
+        flags(CC_CMP, s1 - s2, s1, s2);
+    }
+
+    private void clrb() throws Exception {
+        setOperandB(0);
+        flags(CC_LOGIC, 0, 0, 0);
+    }
+
+    private void clrw() throws Exception {
+        setOperandW(0);
+        flags(CC_LOGIC, 0, 0, 0);
+    }
+
+    private void clrl() throws Exception {
+        setOperandL(0);
+        flags(CC_LOGIC, 0, 0, 0);
+    }
+
+    private void clrq() throws Exception {
+        setOperand(8, 0);
+        flags(CC_LOGIC, 0, 0, 0);
+    }
+
+    private void tstb() throws Exception {
+        flags(CC_TST, getOperandB(), 0, 0);
+    }
+
+    private void tstw() throws Exception {
+        flags(CC_TST, getOperandW(), 0, 0);
+    }
+
+    private void tstl() throws Exception {
+        flags(CC_TST, getOperandL(), 0, 0);
+    }
+
+    private void incb() throws Exception {
+        int s1 = peekOperandB();
+        flags(CC_INC, setOperandB(s1 + 1), s1, 0);
+    }
+
+    private void incw() throws Exception {
+        int s1 = peekOperandW();
+        flags(CC_INC, setOperandW(s1 + 1), s1, 0);
+    }
+
+    private void incl() throws Exception {
+        int s1 = peekOperandL();
+        flags(CC_INC, setOperandL(s1 + 1), s1, 0);
+    }
+
+    private void decb() throws Exception {
+        int s1 = peekOperandB();
+        flags(CC_DEC, setOperandB(s1 - 1), s1, 0);
+    }
+
+    private void decw() throws Exception {
+        int s1 = peekOperandW();
+        flags(CC_DEC, setOperandW(s1 - 1), s1, 0);
+    }
+
+    private void decl() throws Exception {
+        int s1 = peekOperandL();
+        flags(CC_DEC, setOperandL(s1 - 1), s1, 0);
+    }
+
+    private void mova(int size) throws Exception {
+        flags(CC_LOGIC, setOperand(4, getAddress(size)), 0, 0);
+    }
+
+    private void pusha(int size) throws Exception {
+        int s1 = getAddress(size);
+        push(4, s1);
+        flags(CC_LOGIC, s1, 0, 0);
+    }
+
+    private void pushl() throws Exception {
+        int s1 = getOperand(4);
+        push(4, s1);
+        flags(CC_LOGIC, s1, 0, 0);
+    }
+
+    private void bisb2() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_LOGIC, setOperandB(peekOperandB() | s1), 0, 0);
+    }
+
+    private void bisw2() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_LOGIC, setOperandW(peekOperandW() | s1), 0, 0);
+    }
+
+    private void bisl2() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_LOGIC, setOperandL(peekOperandL() | s1), 0, 0);
+    }
+
+    private void bisb3() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_LOGIC, setOperandB(getOperandB() | s1), 0, 0);
+    }
+
+    private void bisw3() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_LOGIC, setOperandW(getOperandW() | s1), 0, 0);
+    }
+
+    private void bisl3() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_LOGIC, setOperandL(getOperandL() | s1), 0, 0);
+    }
+
+    private void bicb2() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_LOGIC, setOperandB(peekOperandB() & ~s1), 0, 0);
+    }
+
+    private void bicw2() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_LOGIC, setOperandW(peekOperandW() & ~s1), 0, 0);
+    }
+
+    private void bicl2() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_LOGIC, setOperandL(peekOperandL() & ~s1), 0, 0);
+    }
+
+    private void bicb3() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_LOGIC, setOperandB(getOperandB() & ~s1), 0, 0);
+    }
+
+    private void bicw3() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_LOGIC, setOperandW(getOperandW() & ~s1), 0, 0);
+    }
+
+    private void bicl3() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_LOGIC, setOperandL(getOperandL() & ~s1), 0, 0);
+    }
+
+    private void bitb() throws Exception {
+        int s1 = getOperandB();
+        int s2 = getOperandB();
+        flags(CC_LOGIC, s1 & s2, 0, 0);
+    }
+
+    private void bitw() throws Exception {
+        int s1 = getOperandW();
+        int s2 = getOperandW();
+        flags(CC_LOGIC, s1 & s2, 0, 0);
+    }
+
+    private void bitl() throws Exception {
+        int s1 = getOperandL();
+        int s2 = getOperandL();
+        flags(CC_LOGIC, s1 & s2, 0, 0);
+    }
+
+    private void mnegb() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_MNEG, setOperandB(-s1), s1, 0);
+    }
+
+    private void mnegw() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_MNEG, setOperandW(-s1), s1, 0);
+    }
+
+    private void mnegl() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_MNEG, setOperandL(-s1), s1, 0);
+    }
+
+    private void xorb2() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_LOGIC, setOperandB(peekOperandB() ^ s1), 0, 0);
+    }
+
+    private void xorw2() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_LOGIC, setOperandW(peekOperandW() ^ s1), 0, 0);
+    }
+
+    private void xorl2() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_LOGIC, setOperandL(peekOperandL() ^ s1), 0, 0);
+    }
+
+    private void xorb3() throws Exception {
+        int s1 = getOperandB();
+        flags(CC_LOGIC, setOperandB(getOperandB() ^ s1), 0, 0);
+    }
+
+    private void xorw3() throws Exception {
+        int s1 = getOperandW();
+        flags(CC_LOGIC, setOperandW(getOperandW() ^ s1), 0, 0);
+    }
+
+    private void xorl3() throws Exception {
+        int s1 = getOperandL();
+        flags(CC_LOGIC, setOperandL(getOperandL() ^ s1), 0, 0);
+    }
+
+    private void mcomb() throws Exception {
+        flags(CC_LOGIC, setOperandB(~getOperandB()), 0, 0);
+    }
+
+    private void mcomw() throws Exception {
+        flags(CC_LOGIC, setOperandW(~getOperandW()), 0, 0);
+    }
+
+    private void mcoml() throws Exception {
+        flags(CC_LOGIC, setOperandL(~getOperandL()), 0, 0);
+    }
+
+    private void mulb2() throws Exception {
+        int s1 = getOperandB();
+        int s2 = peekOperandB();
+        int d = setOperandB(s2 * s1);
+        setNZVC(d < 0, d == 0, (long) s2 * s1 != d, false);
+    }
+
+    private void mulw2() throws Exception {
+        int s1 = getOperandW();
+        int s2 = peekOperandW();
+        int d = setOperandW(s2 * s1);
+        setNZVC(d < 0, d == 0, (long) s2 * s1 != d, false);
+    }
+
+    private void mull2() throws Exception {
+        int s1 = getOperandL();
+        int s2 = peekOperandL();
+        int d = setOperandL(s2 * s1);
+        setNZVC(d < 0, d == 0, (long) s2 * s1 != d, false);
+    }
+
+    private void mulb3() throws Exception {
+        int s1 = getOperandB();
+        int s2 = getOperandB();
+        int d = setOperandB(s2 * s1);
+        setNZVC(d < 0, d == 0, (long) s2 * s1 != d, false);
+    }
+
+    private void mulw3() throws Exception {
+        int s1 = getOperandW();
+        int s2 = getOperandW();
+        int d = setOperandW(s2 * s1);
+        setNZVC(d < 0, d == 0, (long) s2 * s1 != d, false);
+    }
+
+    private void mull3() throws Exception {
+        int s1 = getOperandL();
+        int s2 = getOperandL();
+        int d = setOperandL(s2 * s1);
+        setNZVC(d < 0, d == 0, (long) s2 * s1 != d, false);
+    }
+
+    private void divb2() throws Exception {
+        int s1 = getOperandB();
+        int s2 = peekOperandB();
+        div(s1, s2, setOperandB(s1 == 0 ? s2 : s2 / s1));
+    }
+
+    private void divw2() throws Exception {
+        int s1 = getOperandW();
+        int s2 = peekOperandW();
+        div(s1, s2, setOperandW(s1 == 0 ? s2 : s2 / s1));
+    }
+
+    private void divl2() throws Exception {
+        int s1 = getOperandL();
+        int s2 = peekOperandL();
+        div(s1, s2, setOperandL(s1 == 0 ? s2 : s2 / s1));
+    }
+
+    private void divb3() throws Exception {
+        int s1 = getOperandB();
+        int s2 = getOperandB();
+        div(s1, s2, setOperandB(s1 == 0 ? s2 : s2 / s1));
+    }
+
+    private void divw3() throws Exception {
+        int s1 = getOperandW();
+        int s2 = getOperandW();
+        div(s1, s2, setOperandW(s1 == 0 ? s2 : s2 / s1));
+    }
+
+    private void divl3() throws Exception {
+        int s1 = getOperandL();
+        int s2 = getOperandL();
+        div(s1, s2, setOperandL(s1 == 0 ? s2 : s2 / s1));
+    }
+
+    // a zero divisor leaves the dividend as the quotient d
+    private void div(int s1, int s2, int d) throws Exception {
+        setNZVC(d < 0, d == 0, s1 == 0 || (long) s2 / s1 != d, false);
+        if (s1 == 0) {
+            throw trap.set(VAXTrap.ARITH, -1, VAXTrap.INTDIV);
+        }
+    }
+
+    private void adwc() throws Exception {
+        int s1 = getOperand(4);
+        int s2 = peekOperand(4);
+        int c = c() ? 1 : 0;
+        long u = (s2 & 0xffffffffL) + (s1 & 0xffffffffL) + c;
+        int d = setOperand(4, (int) u);
+        setNZVC(d < 0, d == 0, (long) s2 + s1 + c != d, u >>> 32 != 0);
+    }
+
+    private void sbwc() throws Exception {
+        int s1 = getOperand(4);
+        int s2 = peekOperand(4);
+        int c = c() ? 1 : 0;
+        long u = (s2 & 0xffffffffL) - (s1 & 0xffffffffL) - c;
+        int d = setOperand(4, (int) u);
+        setNZVC(d < 0, d == 0, (long) s2 - s1 - c != d, u < 0);
+    }
+
+    private void ashl() throws Exception {
+        int cnt = (byte) getOperand(1);
+        int s1 = getOperand(4);
+        int d;
+        boolean v = false;
+        if (cnt >= 0) {
+            d = cnt > 31 ? 0 : s1 << cnt;
+            v = cnt > 31 ? s1 != 0 : d >> cnt != s1;
+        } else {
+            d = s1 >> Math.min(-cnt, 31);
+        }
+        d = setOperand(4, d);
+        setNZVC(d < 0, d == 0, v, false);
+    }
+
+    private void ashq() throws Exception {
+        int cnt = (byte) getOperand(1);
+        long s1 = getQuad();
+        long d;
+        boolean v = false;
+        if (cnt >= 0) {
+            d = cnt > 63 ? 0 : s1 << cnt;
+            v = cnt > 63 ? s1 != 0 : d >> cnt != s1;
+        } else {
+            d = s1 >> Math.min(-cnt, 63);
+        }
+        setQuad(d);
+        setNZVC(d < 0, d == 0, v, false);
+    }
+
+    private void rotl() throws Exception {
+        int cnt = getOperand(1);
+        flags(CC_LOGIC, setOperand(4, Integer.rotateLeft(getOperand(4), cnt)), 0, 0);
+    }
+
+    private void emul() throws Exception {
+        int s1 = getOperand(4);
+        int s2 = getOperand(4);
+        int s3 = getOperand(4);
+        long d = setQuad((long) s1 * s2 + s3);
+        setNZVC(d < 0, d == 0, false, false);
+    }
+
+    // a quotient that does not fit leaves the low dividend and no remainder
+    private void ediv() throws Exception {
+        int s1 = getOperand(4);
+        long s2 = getQuad();
+        long q = s1 == 0 ? s2 : s2 / s1;
+        boolean v = s1 == 0 || q != (int) q;
+        int d = setOperand(4, v ? (int) s2 : (int) q);
+        setOperand(4, v ? 0 : (int) (s2 % s1));
+        setNZVC(d < 0, d == 0, v, false);
+        if (s1 == 0) {
+            throw trap.set(VAXTrap.ARITH, -1, VAXTrap.INTDIV);
+        }
+    }
+
+    private void movq() throws Exception {
+        long d = setQuad(getQuad());
+        setNZVC(d < 0, d == 0, false, c());
+    }
+
+    private void aob(boolean equal) throws Exception {
+        int s1 = getOperand(4);
+        int s2 = peekOperand(4);
+        int d = setOperand(4, s2 + 1);
+        flags(CC_AOB, d, s2, 0);
+        branch(equal ? d <= s1 : d < s1);
+    }
+
+    // bit fields: with a register base the field runs from bit pos of rn
+    // into rn + 1, otherwise pos counts bits from the base address and the
+    // field is cut from a window of up to five bytes read in one access
+
+    private int fieldRn, fieldAddr, fieldLen;
+    private long fieldWindow;
+
+    private int fieldSize() throws Exception {
+        int size = getOperand(1) & 0xff;
+        if (size > 32) {
+            throw trap.set(VAXTrap.RESERVED, -1, size);
+        }
+        return size;
+    }
+
+    private long field(int pos, int size) throws Exception {
+        VAXOperand o = insn.oprs[opr++];
+        if (o.kind == VAXOperand.REG) {
+            if (Integer.compareUnsigned(pos, 31) > 0) {
+                throw trap.set(VAXTrap.RESERVED, -1, pos);
+            }
+            fieldRn = o.rn;
+            long w = r[o.rn] & 0xffffffffL;
+            if (pos + size > 32) {
+                w |= (long) r[pair(o, 2)] << 32;
+            }
+            return w >>> pos & (1L << size) - 1;
+        }
+        fieldRn = -1;
+        fieldAddr = address(o, 1, true) + (pos >> 3);
+        fieldLen = size == 0 ? 0 : (pos & 7) + size + 7 >> 3;
+        fieldWindow = mem.getWindow(fieldAddr, fieldLen);
+        return fieldWindow >>> (pos & 7) & (1L << size) - 1;
+    }
+
+    // replaces the field that field() just read
+    private void setField(int pos, int size, int value) throws Exception {
+        long mask = (1L << size) - 1;
+        if (fieldRn >= 0) {
+            long w = r[fieldRn] & 0xffffffffL | (long) r[fieldRn + 1] << 32;
+            w = w & ~(mask << pos) | (value & mask) << pos;
+            r[fieldRn] = (int) w;
+            if (pos + size > 32) {
+                r[fieldRn + 1] = (int) (w >>> 32);
+            }
+            return;
+        }
+        int sh = pos & 7;
+        invalidate(fieldAddr, fieldLen);
+        mem.setWindow(fieldAddr, fieldLen, fieldWindow & ~(mask << sh) | (value & mask) << sh);
+    }
+
+    private void extv(boolean signed) throws Exception {
+        int pos = getOperand(4);
+        int size = fieldSize();
+        long f = field(pos, size);
+        int d = setOperand(4, signed && size > 0 ? (int) (f << (64 - size) >> (64 - size)) : (int) f);
+        flags(CC_LOGIC, d, 0, 0);
+    }
+
+    private void insv() throws Exception {
+        int src = getOperand(4);
+        int pos = getOperand(4);
+        int size = fieldSize();
+        field(pos, size);
+        setField(pos, size, src);
+    }
+
+    private void cmpv(boolean signed) throws Exception {
+        int pos = getOperand(4);
+        int size = fieldSize();
+        long f = field(pos, size);
+        int s1 = signed && size > 0 ? (int) (f << (64 - size) >> (64 - size)) : (int) f;
+        int s2 = getOperand(4);
+        flags(CC_CMP, s1 - s2, s1, s2);
+    }
+
+    private void ffs(boolean set) throws Exception {
+        int pos = getOperand(4);
+        int size = fieldSize();
+        long f = field(pos, size);
+        if (!set) {
+            f = ~f & (1L << size) - 1;
+        }
+        setOperand(4, pos + (f == 0 ? size : Long.numberOfTrailingZeros(f)));
+        setNZVC(false, f == 0, false, false);
+    }
+
+    // string instructions: lengths are unsigned words, and the registers
+    // are left as the architecture defines them at completion
+
+    private void movc3() throws Exception {
+        int len = getOperand(2) & 0xffff;
+        int src = getAddress(1);
+        int dst = getAddress(1);
+        invalidate(dst, len);
+        mem.move(dst, src, len);
+        r[0] = r[2] = r[4] = r[5] = 0;
+        r[1] = src + len;
+        r[3] = dst + len;
+        setNZVC(false, true, false, false);
+    }
+
+    private void movc5() throws Exception {
+        int srclen = getOperand(2) & 0xffff;
+        int src = getAddress(1);
+        int fill = getOperand(1);
+        int dstlen = getOperand(2) & 0xffff;
+        int dst = getAddress(1);
+        int n = Math.min(srclen, dstlen);
+        invalidate(dst, dstlen);
+        mem.move(dst, src, n);
+        mem.fill(dst + n, dstlen - n, (byte) fill);
+        r[0] = srclen - n;
+        r[1] = src + n;
+        r[2] = r[4] = r[5] = 0;
+        r[3] = dst + dstlen;
+        lengths(srclen, dstlen, false);
+    }
+
+    // condition codes of cmpw srclen,dstlen
+    private void lengths(int srclen, int dstlen, boolean v) {
+        setNZVC((short) srclen < (short) dstlen, srclen == dstlen, v, srclen < dstlen);
+    }
+
+    private void cmpc(boolean five) throws Exception {
+        int len1 = getOperand(2) & 0xffff;
+        int s1 = getAddress(1);
+        int fill = 0, len2 = len1;
+        if (five) {
+            fill = getOperand(1);
+            len2 = getOperand(2) & 0xffff;
+        }
+        int s2 = getAddress(1);
+        int n = Math.min(len1, len2);
+        int i = mem.mismatch(s1, s2, n);
+        if (i < 0 && len1 != len2) {
+            // the shorter string goes on as fill bytes
+            int k = len1 > len2
+                    ? mem.locate(s1 + n, len1 - n, (byte) fill, false)
+                    : mem.locate(s2 + n, len2 - n, (byte) fill, false);
+            i = k < 0 ? -1 : n + k;
+        }
+        if (i < 0) {
+            i = Math.max(len1, len2);
+            setNZVC(false, true, false, false);
+        } else {
+            int b1 = i < len1 ? mem.get(s1 + i, 1) : (byte) fill;
+            int b2 = i < len2 ? mem.get(s2 + i, 1) : (byte) fill;
+            flags(CC_CMP, b1 - b2, b1, b2);
+        }
+        r[0] = Math.max(len1 - i, 0);
+        r[1] = s1 + Math.min(i, len1);
+        r[2] = Math.max(len2 - i, 0);
+        r[3] = s2 + Math.min(i, len2);
+    }
+
+    private void locc(boolean equal) throws Exception {
+        int c = getOperand(1);
+        int len = getOperand(2) & 0xffff;
+        int addr = getAddress(1);
+        int i = mem.locate(addr, len, (byte) c, equal);
+        if (i < 0) {
+            i = len;
+        }
+        r[0] = len - i;
+        r[1] = addr + i;
+        setNZVC(false, r[0] == 0, false, false);
+    }
+
+    private byte[] table(int addr) throws VAXTrap {
+        mem.get(addr, table, 0, table.length);
+        return table;
+    }
+
+    private void scanc(boolean span) throws Exception {
+        int len = getOperand(2) & 0xffff;
+        int addr = getAddress(1);
+        int tbl = getAddress(1);
+        int mask = getOperand(1);
+        int i = mem.scan(addr, len, table(tbl), mask, !span);
+        if (i < 0) {
+            i = len;
+        }
+        r[0] = len - i;
+        r[1] = addr + i;
+        r[2] = 0;
+        r[3] = tbl;
+        setNZVC(false, r[0] == 0, false, false);
+    }
+
+    // movtuc stops at the escape character where movtc has its fill
+    private void movtc(boolean escape) throws Exception {
+        int srclen = getOperand(2) & 0xffff;
+        int src = getAddress(1);
+        int fill = getOperand(1);
+        int tbl = getAddress(1);
+        int dstlen = getOperand(2) & 0xffff;
+        int dst = getAddress(1);
+        int n = Math.min(srclen, dstlen);
+        invalidate(dst, dstlen);
+        int i = mem.translate(dst, src, n, table(tbl), escape ? fill & 0xff : -1);
+        if (!escape) {
+            mem.fill(dst + n, dstlen - n, (byte) fill);
+        }
+        r[0] = srclen - i;
+        r[1] = src + i;
+        r[2] = 0;
+        r[3] = tbl;
+        if (escape) {
+            r[4] = dstlen - i;
+            r[5] = dst + i;
+        } else {
+            r[4] = 0;
+            r[5] = dst + dstlen;
+        }
+        lengths(srclen, dstlen, i < n);
+    }
+
+    private void matchc() throws Exception {
+        int objlen = getOperand(2) & 0xffff;
+        int obj = getAddress(1);
+        int srclen = getOperand(2) & 0xffff;
+        int src = getAddress(1);
+        int i = 0;
+        if (objlen > 0) {
+            byte first = (byte) mem.get(obj, 1);
+            for (;; ++i) {
+                // only places where the whole object still fits are tried
+                int k = srclen - i < objlen ? -1
+                        : mem.locate(src + i, srclen - i - objlen + 1, first, true);
+                if (k < 0) {
+                    i = -1;
+                    break;
+                }
+                i += k;
+                if (mem.mismatch(src + i + 1, obj + 1, objlen - 1) < 0) {
+                    break;
+                }
+            }
+        }
+        if (i < 0) {
+            r[0] = objlen;
+            r[1] = obj;
+            r[2] = 0;
+            r[3] = src + srclen;
+        } else {
+            r[0] = 0;
+            r[1] = obj + objlen;
+            r[2] = srclen - i - objlen;
+            r[3] = src + i + objlen;
         }
+        setNZVC(false, r[0] == 0, false, false);
     }
 
     public final static String[] syscalls = {
@@ -2112,37 +7824,662 @@ class VAX {
         "sig", "(reserved)", "(reserved)", "sysacct", "sysphys", "syslock", "ioctl", "reboot",
         "mpxchan", "(reserved)", "(reserved)", "exece", "umask", "chroot"};
 
+    private int arg(int n) throws Exception {
+        return get(r[AP] + n * 4, 4);
+    }
+
+    private String string(int addr) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int b; (b = get(addr++, 1)) != 0;) {
+            sb.append((char) (b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private int fork() {
+        VAX child = new VAX(this);
+        child.r[0] = pid;
+        child.r[1] = 1;
+        child.setNZVC(n(), z(), v(), false);
+        synchronized (kernel) {
+            children.add(child);
+        }
+        kernel.add(child);
+        VAXScheduler s = VAXScheduler.get();
+        child.vruntime = Math.max(vruntime, s.floor());
+        s.ready(child);
+        r[1] = 0;
+        return child.pid;
+    }
+
+    public long getVruntime() {
+        return vruntime;
+    }
+
+    // runs one quantum on a carrier thread, then requeues, parks or reaps
+    public void slice(VAXScheduler s, int quantum) {
+        long start = steps, q = kernel.quantum(quantum);
+        int st = 0;
+        boolean done;
+        if (q == 0) {
+            // killed with the tree, or the budget of the machine is spent
+            terminate(9);
+            killTree();
+            return;
+        }
+        limit = steps + q;
+        try {
+            st = (run(mode, blocks) & 0xff) << 8;
+            done = exited;
+        } catch (Exception e) {
+            err.println(e.getMessage());
+            // reported to the parent like the signal the fault would raise
+            st = e != trap ? 4 : trap.kind == VAXTrap.ACCESS ? 11 : trap.kind == VAXTrap.ARITH ? 8 : 4;
+            done = true;
+        }
+        kernel.refund(q - (steps - start));
+        // each nice level weighs the time by another 25%
+        vruntime += (long) ((steps - start) * Math.pow(1.25, nice));
+        if (done) {
+            terminate(st);
+            return;
+        }
+        synchronized (kernel) {
+            if (state == PARKING) {
+                state = PARKED;
+                return;
+            }
+        }
+        s.ready(this);
+    }
+
+    // waits until f is ready; a scheduled process is parked instead and
+    // true is returned, the top-level one reads its console directly
+    private boolean block(VAXFile f, boolean write) throws IOException {
+        if (f.ready(write) || !scheduled && f instanceof VAXConsole) {
+            return false;
+        } else if (scheduled) {
+            park();
+            f.await(write, this::wake);
+            return true;
+        }
+        Thread t = Thread.currentThread();
+        f.await(write, () -> LockSupport.unpark(t));
+        while (!f.ready(write)) {
+            LockSupport.park(this);
+        }
+        return false;
+    }
+
+    // stops the run loop before the current syscall, which runs again on wake
+    private void park() {
+        state = PARKING;
+        r[PC] = insn.pc;
+        limit = steps;
+    }
+
+    private void wake() {
+        synchronized (kernel) {
+            if (zombie) {
+                return;
+            } else if (state == PARKED) {
+                state = RUNNING;
+                VAXScheduler.get().ready(this);
+            } else {
+                state = RUNNING;
+            }
+        }
+    }
+
+    private void terminate(int st) {
+        for (int fd = 0; fd < files.length; ++fd) {
+            try {
+                closeFile(fd);
+            } catch (IOException e) {
+            }
+        }
+        kernel.remove(this);
+        synchronized (kernel) {
+            status = st;
+            zombie = true;
+            kernel.notifyAll();
+            if (parent != null && parent.scheduled) {
+                parent.wake();
+            }
+        }
+    }
+
+    // ends every forked process of the machine: queued ones stop at their
+    // next slice and parked ones are woken to do so
+    private void killTree() {
+        for (VAX p : kernel.kill()) {
+            p.wake();
+        }
+    }
+
+    private int waitChild() throws InterruptedException {
+        synchronized (kernel) {
+            for (;;) {
+                if (children.isEmpty()) {
+                    return -VAXFile.ECHILD;
+                }
+                for (int i = 0; i < children.size(); ++i) {
+                    VAX child = children.get(i);
+                    if (child.zombie) {
+                        children.remove(i);
+                        r[1] = child.status;
+                        return child.pid;
+                    }
+                }
+                if (scheduled) {
+                    park();
+                    return 0;
+                }
+                kernel.wait();
+            }
+        }
+    }
+
+    // replaces the image of this process, keeping its files
+    private int exec(Path p, int argv) throws Exception {
+        if (p == null) {
+            return -VAXFile.EACCES;
+        } else if (!Files.isRegularFile(p)) {
+            return Files.exists(p) ? -VAXFile.EACCES : -VAXFile.ENOENT;
+        }
+        ArrayList<String> args = new ArrayList<>();
+        for (int a; (a = get(argv, 4)) != 0; argv += 4) {
+            args.add(string(a));
+        }
+        AOut a = AOut.load(p.toString());
+        if (a.a_magic != 0x108) {
+            return -VAXFile.ENOEXEC;
+        }
+        load(a, args.toArray(new String[0]));
+        Arrays.fill(r, 0, SP, 0);
+        ++blockGen; // drop the blocks of the old image
+        callDepth = 0;
+        pushCallStack(false);
+        return 0;
+    }
+
+    private VAXFile file(int fd) {
+        return 0 <= fd && fd < files.length ? files[fd] : null;
+    }
+
+    private int allocFile(VAXFile f, int min) throws IOException {
+        for (int fd = min; fd < files.length; ++fd) {
+            if (files[fd] == null) {
+                files[fd] = f;
+                return fd;
+            }
+        }
+        f.release();
+        return -VAXFile.EMFILE;
+    }
+
+    private int closeFile(int fd) throws IOException {
+        VAXFile f = file(fd);
+        if (f == null) {
+            return -VAXFile.EBADF;
+        }
+        files[fd] = null;
+        f.release();
+        return 0;
+    }
+
+    // maps a guest path into the sandbox as if the root were chrooted;
+    // returns null when a symbolic link leads outside of it
+    private Path path(int addr) throws Exception {
+        String s = string(addr);
+        Path p = s.startsWith("/") ? root : cwd;
+        for (String part : s.split("/")) {
+            if (part.equals("..")) {
+                if (!p.equals(root)) {
+                    p = p.getParent();
+                }
+            } else if (!part.isEmpty() && !part.equals(".")) {
+                p = p.resolve(part);
+            }
+        }
+        Path q = p;
+        while (q != null && !Files.exists(q)) {
+            q = q.getParent();
+        }
+        return q != null && q.toRealPath().startsWith(root.toRealPath()) ? p : null;
+    }
+
+    // mode is applied under umask when create makes a new file
+    private int open(Path p, boolean read, boolean write, boolean create, int mode) throws IOException {
+        if (p == null) {
+            return -VAXFile.EACCES;
+        } else if (Files.isDirectory(p)) {
+            return -VAXFile.EISDIR;
+        }
+        boolean fresh = create && !Files.exists(p);
+        FileChannel ch = create
+                ? FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)
+                : write && read
+                        ? FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(p, write ? StandardOpenOption.WRITE : StandardOpenOption.READ);
+        if (fresh) {
+            EnumSet<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+            for (PosixFilePermission pp : PosixFilePermission.values()) {
+                if ((mode & ~umask & (0400 >> pp.ordinal())) != 0) {
+                    perms.add(pp);
+                }
+            }
+            try {
+                Files.setPosixFilePermissions(p, perms);
+            } catch (UnsupportedOperationException ex) {
+            }
+        }
+        return allocFile(new VAXChannelFile(ch, p, read, write), 0);
+    }
+
+    // struct stat of V7 on the VAX, 32 bytes
+    private int stat(Path p, int addr) throws Exception {
+        int mode = VAXFile.S_IFCHR | 0666, ino = 0, size = 0, atime = 0, mtime = 0, ctime = 0;
+        if (p != null) {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            int perm = a.isDirectory() ? 0755 : 0644;
+            try {
+                int posix = 0;
+                for (PosixFilePermission pp : Files.getPosixFilePermissions(p)) {
+                    posix |= 0400 >> pp.ordinal();
+                }
+                perm = posix;
+            } catch (UnsupportedOperationException ex) {
+            }
+            mode = (a.isDirectory() ? VAXFile.S_IFDIR : VAXFile.S_IFREG) | perm;
+            ino = a.fileKey() != null ? a.fileKey().hashCode() : p.hashCode();
+            size = (int) a.size();
+            atime = (int) a.lastAccessTime().to(TimeUnit.SECONDS);
+            mtime = (int) a.lastModifiedTime().to(TimeUnit.SECONDS);
+            ctime = (int) a.creationTime().to(TimeUnit.SECONDS);
+        }
+        int[] st = {0, 2, ino, 2, mode, 2, 1, 2, 0, 2, 0, 2, 0, 2, 0, 2,
+            size, 4, atime, 4, mtime, 4, ctime, 4};
+        for (int i = 0; i < st.length; i += 2) {
+            set(addr, st[i + 1], st[i]);
+            addr += st[i + 1];
+        }
+        return 0;
+    }
+
     public void syscall() throws Exception {
-        int sc = fetch();
+        int sc = getOperand(2);
         if (mode >= 1) {
-            System.err.println("[syscall] " + syscalls[sc] + "(" + getArgs() + ")");
+            err.println("[syscall] " + syscalls[sc] + "(" + getArgs() + ")");
+        }
+        int ret;
+        try {
+            ret = syscall(sc);
+            if (state == PARKING) {
+                return;
+            }
+        } catch (VAXTrap e) {
+            ret = -VAXFile.EFAULT;
+        } catch (NoSuchFileException e) {
+            ret = -VAXFile.ENOENT;
+        } catch (AccessDeniedException e) {
+            ret = -VAXFile.EACCES;
+        } catch (FileAlreadyExistsException e) {
+            ret = -VAXFile.EEXIST;
+        } catch (NotDirectoryException e) {
+            ret = -VAXFile.ENOTDIR;
+        } catch (IOException e) {
+            ret = -VAXFile.EIO;
         }
+        // the kernel reports errors with the carry flag and errno in r0
+        r[0] = Math.abs(ret);
+        setNZVC(n(), z(), v(), ret < 0);
+    }
+
+    private int syscall(int sc) throws Exception {
         switch (sc) {
             case 1: // exit
-                System.exit(buf.getInt(r[AP] + 4));
-                return;
+                throw exit.set(arg(1));
+            case 2: // fork
+                return fork();
+            case 3: // read
+            {
+                VAXFile f = file(arg(1));
+                if (f == null) {
+                    return -VAXFile.EBADF;
+                } else if (f instanceof VAXConsole) {
+                    stdout.flush();
+                }
+                int addr = arg(2), len = arg(3), n;
+                do {
+                    if (block(f, false)) {
+                        return 0;
+                    }
+                } while ((n = f.read(mem, addr, len)) == -VAXFile.EAGAIN);
+                if (n > 0) {
+                    invalidate(addr, n);
+                }
+                return n;
+            }
             case 4: // write
-                System.out.print(getString(buf.getInt(r[AP] + 8), buf.getInt(r[AP] + 12)));
-                return;
+            {
+                VAXFile f = file(arg(1));
+                int addr = arg(2), len = arg(3);
+                if (f == null) {
+                    return -VAXFile.EBADF;
+                } else if (len < 0) {
+                    return -VAXFile.EINVAL;
+                }
+                // a pipe may take the data in pieces
+                while (partial < len) {
+                    if (block(f, true)) {
+                        return 0;
+                    }
+                    int n = f.write(mem, addr + partial, len - partial);
+                    if (n < 0 && n != -VAXFile.EAGAIN) {
+                        partial = 0;
+                        return n;
+                    }
+                    partial += Math.max(n, 0);
+                }
+                partial = 0;
+                return len;
+            }
+            case 5: // open
+            {
+                int flags = arg(2);
+                return open(path(arg(1)), flags != 1, flags != 0, false, 0);
+            }
             case 6: // close
-                return;
+                return closeFile(arg(1));
+            case 7: // wait
+                return waitChild();
+            case 8: // creat
+                return open(path(arg(1)), false, true, true, arg(2));
+            case 9: // link
+            {
+                Path p1 = path(arg(1)), p2 = path(arg(2));
+                if (p1 == null || p2 == null) {
+                    return -VAXFile.EACCES;
+                }
+                Files.createLink(p2, p1);
+                return 0;
+            }
+            case 10: // unlink
+            {
+                Path p = path(arg(1));
+                if (p == null) {
+                    return -VAXFile.EACCES;
+                }
+                Files.delete(p);
+                return 0;
+            }
+            case 11: // exec
+            case 59: // exece
+                return exec(path(arg(1)), arg(2));
+            case 12: // chdir
+            {
+                Path p = path(arg(1));
+                if (p == null) {
+                    return -VAXFile.EACCES;
+                } else if (!Files.isDirectory(p)) {
+                    return Files.exists(p) ? -VAXFile.ENOTDIR : -VAXFile.ENOENT;
+                }
+                cwd = p;
+                return 0;
+            }
+            case 13: // time
+                return (int) (System.currentTimeMillis() / 1000);
+            case 17: // break
+                return Integer.compareUnsigned(arg(1), mem.size) <= 0 ? 0 : -VAXFile.ENOMEM;
+            case 18: // stat
+            {
+                Path p = path(arg(1));
+                return p == null ? -VAXFile.EACCES : stat(p, arg(2));
+            }
+            case 19: // seek
+            {
+                VAXFile f = file(arg(1));
+                return f == null ? -VAXFile.EBADF : (int) f.seek(arg(2), arg(3));
+            }
+            case 20: // getpid
+                return pid;
+            case 28: // fstat
+            {
+                VAXFile f = file(arg(1));
+                return f == null ? -VAXFile.EBADF : stat(f.path(), arg(2));
+            }
+            case 33: // access
+            {
+                Path p = path(arg(1));
+                int m = arg(2);
+                if (p == null) {
+                    return -VAXFile.EACCES;
+                } else if (!Files.exists(p)) {
+                    return -VAXFile.ENOENT;
+                } else if ((m & 4) != 0 && !Files.isReadable(p)
+                        || (m & 2) != 0 && !Files.isWritable(p)
+                        || (m & 1) != 0 && !Files.isExecutable(p)) {
+                    return -VAXFile.EACCES;
+                }
+                return 0;
+            }
+            case 34: // nice
+                nice = Math.max(-20, Math.min(19, nice + arg(1)));
+                return 0;
+            case 41: // dup, dup2 when fd has 0100 set
+            {
+                int fd = arg(1);
+                VAXFile f = file(fd & 077);
+                if (f == null) {
+                    return -VAXFile.EBADF;
+                }
+                f.retain();
+                if ((fd & ~077) == 0) {
+                    return allocFile(f, 0);
+                }
+                int fd2 = arg(2);
+                if (fd2 < 0 || fd2 >= files.length) {
+                    f.release();
+                    return -VAXFile.EBADF;
+                } else if (files[fd2] != null) {
+                    closeFile(fd2);
+                }
+                files[fd2] = f;
+                return fd2;
+            }
+            case 42: // pipe
+            {
+                VAXPipe pipe = new VAXPipe();
+                int fd = allocFile(pipe.in, 0);
+                if (fd < 0) {
+                    pipe.out.release();
+                    return fd;
+                }
+                int fd2 = allocFile(pipe.out, 0);
+                if (fd2 < 0) {
+                    closeFile(fd);
+                    return fd2;
+                }
+                r[1] = fd2;
+                return fd;
+            }
             case 0x36: // ioctl
             {
-                int fd = buf.getInt(r[AP] + 4);
-                switch (buf.getInt(r[AP] + 8)) {
+                VAXFile f = file(arg(1));
+                switch (arg(2)) {
                     case 0x7408: // gtty
-                        r[0] = 0 <= fd && fd <= 2 ? 0 : -1;
-                        return;
+                        return f == null ? -VAXFile.EBADF
+                                : f instanceof VAXConsole ? 0 : -VAXFile.ENOTTY;
                 }
                 break;
             }
+            case 60: // umask
+            {
+                int old = umask;
+                umask = arg(1) & 0777;
+                return old;
+            }
         }
         throw error("%08x: unknown syscall %02x", r[PC] - 1, sc);
     }
 }
 
+class VAXBatch {
+
+    static class Job {
+
+        public final int no;
+        public final String path, stdin;
+        public final String[] args;
+        public final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        public final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        public int status = -1;
+        public String error;
+
+        public Job(int no, String path, String[] args, String stdin) {
+            this.no = no;
+            this.path = path;
+            this.args = args;
+            this.stdin = stdin;
+        }
+    }
+
+    public int workers = Runtime.getRuntime().availableProcessors();
+    public int memory = VAX.MEMORY;
+    public boolean blocks, jit, direct;
+    public String root;
+    // instructions each job may run, 0 for no limit
+    public long limit;
+
+    // one job per line: a.out [args ...] [< stdin], paths relative to the manifest
+    public ArrayList<Job> parse(String manifest) throws IOException {
+        File dir = new File(manifest).getAbsoluteFile().getParentFile();
+        ArrayList<Job> jobs = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String stdin = null;
+                int p = line.indexOf('<');
+                if (p >= 0) {
+                    stdin = resolve(dir, line.substring(p + 1).trim());
+                    line = line.substring(0, p).trim();
+                }
+                String[] args = line.split("\\s+");
+                jobs.add(new Job(jobs.size() + 1, resolve(dir, args[0]), args, stdin));
+            }
+        }
+        return jobs;
+    }
+
+    private static String resolve(File dir, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? path : new File(dir, path).getPath();
+    }
+
+    public void run(Job job) {
+        try (InputStream in = job.stdin == null
+                ? InputStream.nullInputStream() : new FileInputStream(job.stdin)) {
+            VAXMachine vm = new VAXMachine(job.path, job.args, memory, direct);
+            vm.setStdin(in);
+            vm.setStdout(job.out);
+            vm.setStderr(job.err);
+            vm.setBlocks(blocks);
+            vm.setBudget(limit);
+            if (root != null) {
+                vm.setRoot(root);
+            }
+            if (jit) {
+                vm.setJit(VAXJit.THRESHOLD);
+            }
+            VAXMachine.Result result = vm.run();
+            job.status = result.status;
+            if (result.error != null) {
+                job.error = result.error.getMessage();
+            } else if (!result.exited) {
+                job.error = "step limit " + limit;
+            }
+        } catch (Exception ex) {
+            job.error = ex.toString();
+        }
+    }
+
+    // runs every job on the pool and reports them in manifest order
+    public int run(ArrayList<Job> jobs, PrintStream report) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                futures.add(pool.submit(() -> run(job)));
+            }
+            int failed = 0;
+            for (int i = 0; i < jobs.size(); ++i) {
+                futures.get(i).get();
+                Job job = jobs.get(i);
+                String result = job.error != null
+                        ? "error: " + job.error : "exit " + job.status;
+                report.printf("==> [%d] %s (%s)", job.no, String.join(" ", job.args), result);
+                report.println();
+                job.out.writeTo(report);
+                job.err.writeTo(report);
+                if (job.error != null || job.status != 0) {
+                    ++failed;
+                }
+            }
+            report.flush();
+            return failed;
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
+
 public class Main {
 
+    // the guest behind VAXMachine: that class has its own source file, so it
+    // reaches the classes of this one only through here
+    static final class Guest {
+
+        static final int MEMORY = VAX.MEMORY;
+        private final VAX vax;
+
+        Guest(String path, String[] args, int memory, boolean direct) throws IOException {
+            vax = new VAX(AOut.load(path), args, memory, direct);
+        }
+
+        void setRoot(String dir) {
+            vax.setRoot(dir);
+        }
+
+        void setJit(int threshold) {
+            vax.setJit(threshold);
+        }
+
+        int run(InputStream in, PrintStream out, PrintStream err, long limit, boolean blocks)
+                throws Exception {
+            vax.setStdio(in, out, err);
+            vax.setLimit(limit);
+            return vax.run(0, blocks);
+        }
+
+        boolean isExited() {
+            return vax.isExited();
+        }
+
+        long getSteps() {
+            return vax.getSteps();
+        }
+
+        int getRegister(int rn) {
+            return vax.getRegister(rn);
+        }
+    }
+
     static final void repl() {
         System.out.println("Press [Ctrl]+[C] to exit.");
         System.out.println();
@@ -2170,10 +8507,29 @@ public class Main {
         }
     }
 
+    static int parseSize(String s) {
+        int unit = 1;
+        switch (s.charAt(s.length() - 1)) {
+            case 'k':
+            case 'K':
+                unit = 1 << 10;
+                break;
+            case 'm':
+            case 'M':
+                unit = 1 << 20;
+                break;
+        }
+        if (unit > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return Integer.decode(s) * unit;
+    }
+
     public static void main(String[] args) {
-        boolean disasm = false, memdump = false;
-        int mode = 0;
-        String target = null;
+        boolean disasm = false, memdump = false, blocks = false, jit = false, direct = false;
+        int mode = 0, memory = VAX.MEMORY, workers = 0;
+        long limit = 0;
+        String target = null, manifest = null, root = null;
         String[] args2 = null;
         OUTER:
         for (int i = 0; i < args.length; ++i) {
@@ -2194,6 +8550,30 @@ public class Main {
                 case "-e":
                     memdump = true;
                     break;
+                case "-b":
+                    blocks = true;
+                    break;
+                case "-j":
+                    blocks = jit = true;
+                    break;
+                case "-M":
+                    memory = parseSize(args[++i]);
+                    break;
+                case "-O":
+                    direct = true;
+                    break;
+                case "-R":
+                    root = args[++i];
+                    break;
+                case "-B":
+                    manifest = args[++i];
+                    break;
+                case "-P":
+                    workers = Integer.parseInt(args[++i]);
+                    break;
+                case "-L":
+                    limit = Long.parseLong(args[++i]);
+                    break;
                 case "-r":
                     repl();
                     return;
@@ -2203,6 +8583,24 @@ public class Main {
                     break OUTER;
             }
         }
+        if (manifest != null) {
+            VAXBatch batch = new VAXBatch();
+            if (workers > 0) {
+                batch.workers = workers;
+            }
+            batch.memory = memory;
+            batch.blocks = blocks;
+            batch.jit = jit;
+            batch.direct = direct;
+            batch.root = root;
+            batch.limit = limit;
+            try {
+                System.exit(batch.run(batch.parse(manifest), System.out) == 0 ? 0 : 1);
+            } catch (Exception ex) {
+                ex.printStackTrace(System.err);
+                System.exit(1);
+            }
+        }
         if (target == null) {
             System.err.println("usage: vaxrun [options]");
             System.err.println("    -d a.out: disassemble mode (not run)");
@@ -2210,19 +8608,37 @@ public class Main {
             System.err.println("    -m a.out [args ...]: verbose mode with memory dump");
             System.err.println("    -v a.out [args ...]: verbose mode (output syscall and disassemble)");
             System.err.println("    -s a.out [args ...]: syscall mode (output syscall)");
+            System.err.println("    -b a.out [args ...]: run with the basic-block engine");
+            System.err.println("    -j a.out [args ...]: compile hot blocks to JVM bytecode");
+            System.err.println("    -M size: guest address space (default 256k, suffix k/m)");
+            System.err.println("    -O: keep guest memory off the Java heap");
+            System.err.println("    -R dir: root directory for guest files (default: current directory)");
+            System.err.println("    -B manifest: run the jobs listed in manifest (a.out [args ...] [< stdin])");
+            System.err.println("    -P n: number of batch workers (default: number of CPUs)");
+            System.err.println("    -L steps: instructions each batch job may run (default: no limit)");
             System.err.println("    -r: read-eval-print loop (repl)");
             System.exit(1);
         }
         try {
-            AOut aout = new AOut(target);
+            AOut aout = AOut.load(target);
             if (memdump) {
                 aout.dump(System.out);
             } else {
-                VAX vax = new VAX(aout, args2);
+                VAX vax = new VAX(aout, args2, memory, direct);
+                if (root != null) {
+                    vax.setRoot(root);
+                }
+                if (jit) {
+                    vax.setJit(VAXJit.THRESHOLD);
+                }
                 if (disasm) {
                     vax.disasm(System.out);
                 } else {
-                    vax.run(mode);
+                    int status = vax.run(mode, blocks);
+                    System.out.flush();
+                    if (status != 0) {
+                        System.exit(status);
+                    }
                 }
             }
         } catch (Exception ex) {
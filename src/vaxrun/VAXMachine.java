@@ -0,0 +1,103 @@
+// This file is licensed under the CC0.
+package vaxrun;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class VAXMachine {
+
+    public static class Result {
+
+        public final int status;
+        public final boolean exited;
+        public final long steps;
+        public final Exception error;
+
+        public Result(int status, boolean exited, long steps, Exception error) {
+            this.status = status;
+            this.exited = exited;
+            this.steps = steps;
+            this.error = error;
+        }
+    }
+
+    private final Main.Guest guest;
+    private InputStream in = InputStream.nullInputStream();
+    private PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+    private PrintStream err = out;
+    private boolean blocks;
+    private long budget;
+    private Result result;
+
+    public VAXMachine(String path, String... args) throws IOException {
+        this(path, args, Main.Guest.MEMORY, false);
+    }
+
+    // args[0] is the program name seen by the guest
+    public VAXMachine(String path, String[] args, int memory, boolean direct) throws IOException {
+        guest = new Main.Guest(path, args.length > 0 ? args : new String[]{path}, memory, direct);
+    }
+
+    public void setStdin(InputStream in) {
+        this.in = in;
+    }
+
+    public void setStdout(OutputStream out) {
+        this.out = out instanceof PrintStream ? (PrintStream) out : new PrintStream(out);
+    }
+
+    public void setStderr(OutputStream err) {
+        this.err = err instanceof PrintStream ? (PrintStream) err : new PrintStream(err);
+    }
+
+    // directory that the guest sees as /, the current directory by default
+    public void setRoot(String dir) {
+        guest.setRoot(dir);
+    }
+
+    public void setBlocks(boolean blocks) {
+        this.blocks = blocks;
+    }
+
+    public void setJit(int threshold) {
+        guest.setJit(threshold);
+        blocks |= threshold > 0;
+    }
+
+    // maximum number of instructions for each call of run, 0 for no limit
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    // runs until the guest exits, faults or uses up the budget;
+    // a guest that has not exited can be resumed by calling run again
+    public Result run() {
+        if (result != null) {
+            return result;
+        }
+        long limit = budget > 0 ? guest.getSteps() + budget : Long.MAX_VALUE;
+        Result ret;
+        try {
+            int status = guest.run(in, out, err, limit, blocks);
+            ret = new Result(status, guest.isExited(), guest.getSteps(), null);
+        } catch (Exception ex) {
+            ret = new Result(-1, false, guest.getSteps(), ex);
+        }
+        out.flush();
+        err.flush();
+        if (ret.exited || ret.error != null) {
+            result = ret;
+        }
+        return ret;
+    }
+
+    public long getSteps() {
+        return guest.getSteps();
+    }
+
+    public int getRegister(int rn) {
+        return guest.getRegister(rn);
+    }
+}